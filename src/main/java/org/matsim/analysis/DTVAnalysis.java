@@ -11,8 +11,6 @@ import org.matsim.application.MATSimAppCommand;
 import org.matsim.application.options.InputOptions;
 import org.matsim.application.options.OutputOptions;
 import org.matsim.application.options.SampleOptions;
-import org.matsim.core.api.experimental.events.EventsManager;
-import org.matsim.core.events.EventsUtils;
 import org.matsim.core.network.NetworkUtils;
 import org.matsim.core.utils.io.IOUtils;
 import picocli.CommandLine;
@@ -22,6 +20,7 @@ import tech.tablesaw.selection.Selection;
 
 import java.io.BufferedReader;
 import java.util.*;
+import java.util.function.Function;
 
 import static tech.tablesaw.aggregate.AggregateFunctions.count;
 
@@ -64,14 +63,11 @@ public class DTVAnalysis implements MATSimAppCommand {
 		Network network = input.getNetwork();
 
 		//reading events file & create volumes
-		EventsManager eventsManager = EventsUtils.createEventsManager();
-		VolumesAnalyzer volume = new VolumesAnalyzer(3600, 86400, network, true);
-		eventsManager.addHandler(volume);
-		eventsManager.initProcessing();
-		EventsUtils.readEvents(eventsManager, input.getEventsPath());
-		eventsManager.finishProcessing();
+		LinkEventsReplay replay = new LinkEventsReplay();
+		List<VolumesAnalyzer> volumes = replay.addHandler(() -> new VolumesAnalyzer(3600, 86400, network, true));
+		replay.readEvents(input.getEventsPath());
 
-		Table sim = createSimDtvTable(dtv, network, volume);
+		Table sim = createSimDtvTable(dtv, network, linkId -> replay.get(volumes, linkId).getVolumesForLink(linkId, TransportMode.car));
 
 		// Sort by quality
 		List<String> labels = List.of("under", "ok", "over");
@@ -104,7 +100,7 @@ public class DTVAnalysis implements MATSimAppCommand {
 		return 0;
 	}
 
-	private Table createSimDtvTable(Table dtv, Network network, VolumesAnalyzer volume) {
+	private Table createSimDtvTable(Table dtv, Network network, Function<Id<Link>, int[]> carVolumes) {
 
 		dtv.addColumns(
 			TextColumn.create("link_id"),
@@ -124,12 +120,12 @@ public class DTVAnalysis implements MATSimAppCommand {
 			double volCar = 0;
 			if (fromLink != null && !fromLink.isBlank()) {
 				linkId = Id.createLinkId(fromLink);
-				volCar = sum(volume.getVolumesForLink(linkId, TransportMode.car)) / sample.getSample();
+				volCar = sum(carVolumes.apply(linkId)) / sample.getSample();
 			}
 
 			if (toLink != null && !toLink.isBlank()) {
 				linkId = Id.createLinkId(toLink);
-				volCar += sum(volume.getVolumesForLink(linkId, TransportMode.car)) / sample.getSample();
+				volCar += sum(carVolumes.apply(linkId)) / sample.getSample();
 			}
 
 			row.setText("link_id", linkId.toString());
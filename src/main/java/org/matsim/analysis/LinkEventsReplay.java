@@ -0,0 +1,247 @@
+package org.matsim.analysis;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.HasLinkId;
+import org.matsim.api.core.v01.events.HasVehicleId;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.BasicEventHandler;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.EventHandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Reads an events file once and processes the events with multiple threads.
+ * Each thread is responsible for a shard of links and has its own instances of all handlers.
+ * Events of a link are always processed by the same shard and in their original order.
+ * <p>
+ * Vehicles entering and leaving traffic, as well as events without a link, are passed to all shards,
+ * so that handlers can still track vehicle modes. Handlers therefore need to be keyed by link, like
+ * {@link org.matsim.analysis.VolumesAnalyzer} or {@link org.matsim.core.trafficmonitoring.TravelTimeCalculator}.
+ * Results for a link have to be queried from the handler of its shard, see {@link #shard(Id)}.
+ * <p>
+ * Alternatively, events can be sharded by vehicle, see {@link #byVehicle(int)}.
+ */
+public final class LinkEventsReplay {
+
+	private static final Logger log = LogManager.getLogger(LinkEventsReplay.class);
+
+	/**
+	 * Number of events passed to a shard at once.
+	 */
+	private static final int BATCH_SIZE = 4096;
+
+	/**
+	 * Marks the end of the events.
+	 */
+	private static final Event[] END = new Event[0];
+
+	private final List<EventsManager> managers = new ArrayList<>();
+	private final boolean byVehicle;
+
+	private volatile Exception error;
+
+	/**
+	 * Create replay with a number of shards, each processed by one thread.
+	 */
+	public LinkEventsReplay(int shards) {
+		this(shards, false);
+	}
+
+	private LinkEventsReplay(int shards, boolean byVehicle) {
+		if (shards < 1)
+			throw new IllegalArgumentException("At least one shard is required");
+
+		for (int i = 0; i < shards; i++) {
+			managers.add(EventsUtils.createEventsManager());
+		}
+
+		this.byVehicle = byVehicle;
+	}
+
+	/**
+	 * Create replay using the available processors, but at most 8 shards.
+	 */
+	public LinkEventsReplay() {
+		this(Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors() - 1)));
+	}
+
+	/**
+	 * Create replay where all events of a vehicle are processed by the same shard, regardless of the link.
+	 * Events without vehicle are passed to all shards. Handlers need to be keyed by vehicle in this case,
+	 * and results are queried with the vehicle id.
+	 */
+	public static LinkEventsReplay byVehicle(int shards) {
+		return new LinkEventsReplay(shards, true);
+	}
+
+	/**
+	 * Add one handler instance per shard.
+	 *
+	 * @return created handlers, indexed by shard
+	 */
+	public <T extends EventHandler> List<T> addHandler(Supplier<T> factory) {
+		List<T> handlers = new ArrayList<>();
+		for (EventsManager manager : managers) {
+			T handler = factory.get();
+			manager.addHandler(handler);
+			handlers.add(handler);
+		}
+		return handlers;
+	}
+
+	/**
+	 * Number of shards.
+	 */
+	public int size() {
+		return managers.size();
+	}
+
+	/**
+	 * Index of the shard processing the events of a link, or of a vehicle if sharded by vehicle.
+	 */
+	public int shard(Id<?> id) {
+		return Math.floorMod(id.index(), managers.size());
+	}
+
+	/**
+	 * Return the handler responsible for a link, or for a vehicle if sharded by vehicle.
+	 *
+	 * @param handlers handlers as returned by {@link #addHandler(Supplier)}
+	 */
+	public <T> T get(List<T> handlers, Id<?> id) {
+		return handlers.get(shard(id));
+	}
+
+	/**
+	 * Key by which an event is sharded, or null if it is passed to all shards.
+	 */
+	private Id<?> key(Event event) {
+
+		if (byVehicle)
+			return event instanceof HasVehicleId v ? v.getVehicleId() : null;
+
+		if (event instanceof HasLinkId l && !(event instanceof VehicleEntersTrafficEvent) && !(event instanceof VehicleLeavesTrafficEvent))
+			return l.getLinkId();
+
+		return null;
+	}
+
+	/**
+	 * Read all events from file and wait until they have been processed by all shards.
+	 */
+	public void readEvents(String path) throws InterruptedException {
+
+		int n = managers.size();
+
+		List<BlockingQueue<Event[]>> queues = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+
+		for (int i = 0; i < n; i++) {
+			BlockingQueue<Event[]> queue = new ArrayBlockingQueue<>(16);
+			EventsManager manager = managers.get(i);
+
+			Thread thread = new Thread(() -> process(manager, queue), "events-shard-" + i);
+			thread.start();
+
+			queues.add(queue);
+			threads.add(thread);
+		}
+
+		Event[][] batches = new Event[n][BATCH_SIZE];
+		int[] sizes = new int[n];
+
+		EventsManager reader = EventsUtils.createEventsManager();
+		reader.addHandler((BasicEventHandler) event -> {
+
+			Id<?> key = key(event);
+			if (key != null) {
+				add(shard(key), event, batches, sizes, queues);
+			} else {
+				for (int i = 0; i < n; i++) {
+					add(i, event, batches, sizes, queues);
+				}
+			}
+		});
+
+		try {
+			reader.initProcessing();
+			EventsUtils.readEvents(reader, path);
+			reader.finishProcessing();
+
+			for (int i = 0; i < n; i++) {
+				put(queues.get(i), Arrays.copyOf(batches[i], sizes[i]));
+			}
+
+		} finally {
+			for (int i = 0; i < n; i++) {
+				// Threads may have terminated already because of an error
+				while (threads.get(i).isAlive() && !queues.get(i).offer(END, 1, TimeUnit.SECONDS)) {
+					// wait until there is capacity
+				}
+			}
+
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		}
+
+		if (error != null)
+			throw new IllegalStateException("Error processing events", error);
+
+		log.info("Processed events from {} with {} shards", path, n);
+	}
+
+	private void add(int shard, Event event, Event[][] batches, int[] sizes, List<BlockingQueue<Event[]>> queues) {
+		batches[shard][sizes[shard]++] = event;
+		if (sizes[shard] == BATCH_SIZE) {
+			put(queues.get(shard), batches[shard]);
+			batches[shard] = new Event[BATCH_SIZE];
+			sizes[shard] = 0;
+		}
+	}
+
+	/**
+	 * Put into the queue, but stop waiting if processing failed.
+	 */
+	private void put(BlockingQueue<Event[]> queue, Event[] batch) {
+		try {
+			while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+				if (error != null)
+					throw new IllegalStateException("Error processing events", error);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while reading events", e);
+		}
+	}
+
+	private void process(EventsManager manager, BlockingQueue<Event[]> queue) {
+		try {
+			manager.initProcessing();
+			while (true) {
+				Event[] batch = queue.take();
+				if (batch == END)
+					break;
+
+				for (Event event : batch) {
+					manager.processEvent(event);
+				}
+			}
+			manager.finishProcessing();
+		} catch (Exception e) {
+			error = e;
+		}
+	}
+}
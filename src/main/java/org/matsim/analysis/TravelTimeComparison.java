@@ -1,5 +1,9 @@
 package org.matsim.analysis;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
@@ -8,11 +12,10 @@ import org.matsim.application.CommandSpec;
 import org.matsim.application.MATSimAppCommand;
 import org.matsim.application.options.InputOptions;
 import org.matsim.application.options.OutputOptions;
-import org.matsim.core.api.experimental.events.EventsManager;
-import org.matsim.core.events.EventsUtils;
-import org.matsim.core.router.DijkstraFactory;
 import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
-import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.speedy.LeastCostPathTree;
+import org.matsim.core.router.speedy.SpeedyGraph;
+import org.matsim.core.router.speedy.SpeedyGraphBuilder;
 import org.matsim.core.router.util.TravelTime;
 import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
 import org.matsim.core.trafficmonitoring.TravelTimeCalculator;
@@ -20,12 +23,14 @@ import org.matsim.core.utils.io.IOUtils;
 import picocli.CommandLine;
 import tech.tablesaw.api.ColumnType;
 import tech.tablesaw.api.DoubleColumn;
-import tech.tablesaw.api.Row;
+import tech.tablesaw.api.IntColumn;
+import tech.tablesaw.api.StringColumn;
 import tech.tablesaw.api.Table;
 import tech.tablesaw.columns.Column;
 import tech.tablesaw.io.csv.CsvReadOptions;
 
 import java.io.BufferedReader;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -68,32 +73,57 @@ public class TravelTimeComparison implements MATSimAppCommand {
 		}
 
 		Network network = input.getNetwork();
-		TravelTime tt = collectTravelTimes(network).getLinkTravelTimes();
+		TravelTime tt = collectTravelTimes(network);
 		TravelTime fs = new FreeSpeedTravelTime();
 
-		OnlyTimeDependentTravelDisutility util = new OnlyTimeDependentTravelDisutility(tt);
+		SpeedyGraph graph = SpeedyGraphBuilder.build(network);
 
-		LeastCostPathCalculator congestedRouter = new DijkstraFactory(false).createPathCalculator(network, util, tt);
-		LeastCostPathCalculator freeflowRouter = new DijkstraFactory(false).createPathCalculator(network, new OnlyTimeDependentTravelDisutility(fs), fs);
+		// Rows are grouped by origin, so that one search can be reused for all destinations
+		Map<String, IntList> groups = new LinkedHashMap<>();
+		StringColumn fromNodes = data.stringColumn("from_node");
+		StringColumn toNodes = data.stringColumn("to_node");
+		IntColumn hourColumn = data.intColumn("hour");
+		for (int i = 0; i < data.rowCount(); i++) {
+			groups.computeIfAbsent(fromNodes.get(i), k -> new IntArrayList()).add(i);
+		}
 
-		data.addColumns(
-			DoubleColumn.create("simulated", data.rowCount()),
-			DoubleColumn.create("free_flow", data.rowCount())
-		);
+		double[] simulated = new double[data.rowCount()];
+		double[] freeFlow = new double[data.rowCount()];
 
-		for (Row row : data) {
-			LeastCostPathCalculator.Path congested = computePath(network, congestedRouter, row);
-			double dist = congested.links.stream().mapToDouble(Link::getLength).sum();
-			double speed = 3.6 * dist / congested.travelTime;
+		ThreadLocal<LeastCostPathTree> congestedTree = ThreadLocal.withInitial(() ->
+			new LeastCostPathTree(graph, tt, new OnlyTimeDependentTravelDisutility(tt)));
+		ThreadLocal<LeastCostPathTree> freeflowTree = ThreadLocal.withInitial(() ->
+			new LeastCostPathTree(graph, fs, new OnlyTimeDependentTravelDisutility(fs)));
 
-			row.setDouble("simulated", speed);
+		groups.entrySet().parallelStream().forEach(e -> {
 
-			LeastCostPathCalculator.Path freeflow = computePath(network, freeflowRouter, row);
-			dist = freeflow.links.stream().mapToDouble(Link::getLength).sum();
-			speed = 3.6 * dist / freeflow.travelTime;
+			Node fromNode = network.getNodes().get(Id.createNodeId(e.getKey()));
+			IntList rows = e.getValue();
 
-			row.setDouble("free_flow", speed);
-		}
+			// Free flow travel times do not depend on the time of day
+			LeastCostPathTree tree = freeflowTree.get();
+			tree.calculate(fromNode.getId().index(), 0, null, null);
+			for (int i : rows) {
+				freeFlow[i] = speed(tree, network, toNodes.get(i), 0);
+			}
+
+			tree = congestedTree.get();
+			IntSet hours = new IntOpenHashSet();
+			rows.forEach(i -> hours.add(hourColumn.getInt(i)));
+
+			for (int hour : hours) {
+				tree.calculate(fromNode.getId().index(), hour * 3600, null, null);
+				for (int i : rows) {
+					if (hourColumn.getInt(i) == hour)
+						simulated[i] = speed(tree, network, toNodes.get(i), hour * 3600);
+				}
+			}
+		});
+
+		data.addColumns(
+			DoubleColumn.create("simulated", simulated),
+			DoubleColumn.create("free_flow", freeFlow)
+		);
 
 		data.addColumns(
 			data.doubleColumn("simulated").subtract(data.doubleColumn("mean")).setName("bias")
@@ -118,30 +148,39 @@ public class TravelTimeComparison implements MATSimAppCommand {
 		return 0;
 	}
 
-	private LeastCostPathCalculator.Path computePath(Network network, LeastCostPathCalculator router, Row row) {
-		Node fromNode = network.getNodes().get(Id.createNodeId(row.getString("from_node")));
-		Node toNode = network.getNodes().get(Id.createNodeId(row.getString("to_node")));
+	/**
+	 * Average speed in km/h on the least cost path to the destination node.
+	 */
+	private static double speed(LeastCostPathTree tree, Network network, String to, double departureTime) {
+		Node toNode = network.getNodes().get(Id.createNodeId(to));
+		int idx = toNode.getId().index();
 
-		return router.calcLeastCostPath(fromNode, toNode, row.getInt("hour") * 3600, null, null);
+		double travelTime = tree.getTime(idx).seconds() - departureTime;
+		return 3.6 * tree.getDistance(idx) / travelTime;
 	}
 
-	private TravelTimeCalculator collectTravelTimes(Network network) {
-		TravelTimeCalculator.Builder builder = new TravelTimeCalculator.Builder(network);
-		builder.setCalculateLinkTravelTimes(true);
-		builder.setMaxTime(86400);
-		builder.setTimeslice(900);
+	private TravelTime collectTravelTimes(Network network) throws InterruptedException {
 
-		TravelTimeCalculator travelTimes = builder.build();
+		LinkEventsReplay replay = new LinkEventsReplay();
+		List<TravelTimeCalculator> calculators = replay.addHandler(() -> {
+			TravelTimeCalculator.Builder builder = new TravelTimeCalculator.Builder(network);
+			builder.setCalculateLinkTravelTimes(true);
+			builder.setMaxTime(86400);
+			builder.setTimeslice(900);
+			return builder.build();
+		});
 
-		EventsManager manager = EventsUtils.createEventsManager();
+		replay.readEvents(input.getEventsPath());
 
-		manager.addHandler(travelTimes);
+		List<TravelTime> travelTimes = calculators.stream().map(TravelTimeCalculator::getLinkTravelTimes).toList();
+		TravelTime tt = (link, time, person, vehicle) -> replay.get(travelTimes, link.getId()).getLinkTravelTime(link, time, person, vehicle);
 
-		manager.initProcessing();
-		EventsUtils.readEvents(manager, input.getEventsPath());
-		manager.finishProcessing();
+		// Travel time data is consolidated lazily, query each link once so that it can be used from multiple threads afterward
+		for (Link link : network.getLinks().values()) {
+			tt.getLinkTravelTime(link, 0, null, null);
+		}
 
-		return travelTimes;
+		return tt;
 	}
 
 }
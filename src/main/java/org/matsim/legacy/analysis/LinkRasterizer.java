@@ -0,0 +1,282 @@
+package org.matsim.legacy.analysis;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Distributes values of links onto a {@link RasterGrid}, while they are being collected.
+ * Each link is rasterised once on creation: the straight line between its nodes is split at the cell borders,
+ * and every cell receives the share of the link length that lies within it. Links are clipped at the bounding box of the grid,
+ * parts outside of it are dropped, also when the last column or row of cells reaches past the box.
+ * <p>
+ * Values are kept per layer (e.g. a pollutant) and time bin. This class is not thread-safe, but instances
+ * created for the same network and grid can be combined with {@link #merge(LinkRasterizer)}.
+ */
+public final class LinkRasterizer {
+
+	private final RasterGrid grid;
+	private final int layers;
+	private final int bins;
+	private final double binSize;
+	private final int size;
+
+	/**
+	 * Cells and weights of each link, indexed by {@link Id#index()} in compressed row format.
+	 */
+	private final int[] offsets;
+	private final int[] cells;
+	private final double[] weights;
+
+	private final double[] values;
+
+	/**
+	 * Create rasteriser for all links of the network.
+	 *
+	 * @param layers  number of values per cell
+	 * @param bins    number of time bins, values after the last bin are added to the last bin
+	 * @param binSize size of each time bin in seconds
+	 */
+	public LinkRasterizer(Network network, RasterGrid grid, int layers, int bins, double binSize) {
+
+		if (layers < 1 || bins < 1)
+			throw new IllegalArgumentException("At least one layer and one time bin are required");
+
+		this.grid = grid;
+		this.layers = layers;
+		this.bins = bins;
+		this.binSize = binSize;
+		this.size = grid.size();
+
+		int n = network.getLinks().keySet().stream().mapToInt(Id::index).max().orElse(-1) + 1;
+
+		Link[] links = new Link[n];
+		for (Link link : network.getLinks().values()) {
+			links[link.getId().index()] = link;
+		}
+
+		IntArrayList cellList = new IntArrayList();
+		DoubleArrayList weightList = new DoubleArrayList();
+
+		offsets = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			if (links[i] != null)
+				rasterize(links[i].getFromNode().getCoord(), links[i].getToNode().getCoord(), cellList, weightList);
+
+			offsets[i + 1] = cellList.size();
+		}
+
+		cells = cellList.toIntArray();
+		weights = weightList.toDoubleArray();
+		values = new double[bins * layers * size];
+	}
+
+	/**
+	 * Rasterise a segment and add the covered cells, with their share of the length, to the lists.
+	 */
+	private void rasterize(Coord from, Coord to, IntArrayList cellList, DoubleArrayList weightList) {
+
+		double x0 = from.getX();
+		double y0 = from.getY();
+		double dx = to.getX() - x0;
+		double dy = to.getY() - y0;
+
+		if (dx == 0 && dy == 0) {
+			int cell = grid.cell(x0, y0);
+			if (cell >= 0) {
+				cellList.add(cell);
+				weightList.add(1);
+			}
+			return;
+		}
+
+		// Parameters along the segment where a cell border is crossed
+		DoubleArrayList ts = new DoubleArrayList();
+		ts.add(0);
+		ts.add(1);
+		crossings(x0, dx, grid.xMin(), grid.cols(), ts);
+		crossings(y0, dy, grid.yMin(), grid.rows(), ts);
+
+		// Upper bounds, which are not necessarily cell borders
+		bound(x0, dx, grid.xMax(), ts);
+		bound(y0, dy, grid.yMax(), ts);
+		ts.sort(null);
+
+		int last = -1;
+		for (int i = 0; i < ts.size() - 1; i++) {
+			double t0 = ts.getDouble(i);
+			double t1 = ts.getDouble(i + 1);
+			if (t1 <= t0)
+				continue;
+
+			double tm = (t0 + t1) / 2;
+			int cell = grid.cell(x0 + tm * dx, y0 + tm * dy);
+			if (cell < 0)
+				continue;
+
+			// Consecutive pieces in the same cell are merged
+			if (cell == last) {
+				int idx = weightList.size() - 1;
+				weightList.set(idx, weightList.getDouble(idx) + t1 - t0);
+			} else {
+				cellList.add(cell);
+				weightList.add(t1 - t0);
+				last = cell;
+			}
+		}
+	}
+
+	private static void bound(double start, double delta, double value, DoubleArrayList ts) {
+		if (delta == 0)
+			return;
+
+		double t = (value - start) / delta;
+		if (t > 0 && t < 1)
+			ts.add(t);
+	}
+
+	private void crossings(double start, double delta, double min, int lines, DoubleArrayList ts) {
+		if (delta == 0)
+			return;
+
+		double end = start + delta;
+		int first = (int) Math.max(0, Math.ceil((Math.min(start, end) - min) / grid.cellSize()));
+		int lastLine = (int) Math.min(lines, Math.floor((Math.max(start, end) - min) / grid.cellSize()));
+
+		for (int k = first; k <= lastLine; k++) {
+			double t = (min + k * grid.cellSize() - start) / delta;
+			if (t > 0 && t < 1)
+				ts.add(t);
+		}
+	}
+
+	public RasterGrid getGrid() {
+		return grid;
+	}
+
+	public int getNumberOfBins() {
+		return bins;
+	}
+
+	public int getNumberOfLayers() {
+		return layers;
+	}
+
+	/**
+	 * Time bin for a time of day.
+	 */
+	public int getBin(double time) {
+		return bins == 1 ? 0 : Math.min(bins - 1, Math.max(0, (int) (time / binSize)));
+	}
+
+	/**
+	 * Distribute a value of a link onto the cells covered by it.
+	 */
+	public void add(Id<Link> linkId, double time, int layer, double value) {
+
+		int link = linkId.index();
+		if (link >= offsets.length - 1)
+			return;
+
+		int base = (getBin(time) * layers + layer) * size;
+		for (int i = offsets[link]; i < offsets[link + 1]; i++) {
+			values[base + cells[i]] += value * weights[i];
+		}
+	}
+
+	/**
+	 * Add all values of another rasteriser, which has to use the same network, grid, layers, number and size of time bins.
+	 */
+	public void merge(LinkRasterizer other) {
+		if (other.values.length != values.length || !other.grid.equals(grid) || other.bins != bins
+			|| Double.compare(other.binSize, binSize) != 0)
+			throw new IllegalArgumentException("Rasterisers are not compatible");
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] += other.values[i];
+		}
+	}
+
+	/**
+	 * Sum of values within a cell.
+	 */
+	public double get(int bin, int layer, int cell) {
+		return values[(bin * layers + layer) * size + cell];
+	}
+
+	/**
+	 * Copy of the values of all cells for one time bin and layer.
+	 */
+	public double[] getRaster(int bin, int layer) {
+		int base = (bin * layers + layer) * size;
+		return Arrays.copyOfRange(values, base, base + size);
+	}
+
+	/**
+	 * Sum of the values over all time bins.
+	 */
+	public double[] getTotalRaster(int layer) {
+		double[] total = new double[size];
+		for (int bin = 0; bin < bins; bin++) {
+			int base = (bin * layers + layer) * size;
+			for (int i = 0; i < total.length; i++) {
+				total[i] += values[base + i];
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Write cell centers with one column per layer, and one row per time bin if there are multiple bins.
+	 * Cells where all layers are below the minimum value are skipped.
+	 */
+	public void writeCsv(String file, List<String> layerNames, double minValue) throws IOException {
+
+		if (layerNames.size() != layers)
+			throw new IllegalArgumentException("Expected %d layer names".formatted(layers));
+
+		try (CSVPrinter printer = new CSVPrinter(IOUtils.getBufferedWriter(file), CSVFormat.TDF)) {
+
+			printer.print("x");
+			printer.print("y");
+			if (bins > 1)
+				printer.print("time");
+			for (String name : layerNames) {
+				printer.print(name);
+			}
+			printer.println();
+
+			for (int bin = 0; bin < bins; bin++) {
+				for (int cell = 0; cell < size; cell++) {
+
+					boolean relevant = false;
+					for (int layer = 0; layer < layers; layer++) {
+						relevant |= get(bin, layer, cell) >= minValue;
+					}
+
+					if (!relevant)
+						continue;
+
+					printer.print(grid.centerX(cell));
+					printer.print(grid.centerY(cell));
+					if (bins > 1)
+						printer.print(bin * binSize);
+					for (int layer = 0; layer < layers; layer++) {
+						printer.print(get(bin, layer, cell));
+					}
+					printer.println();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package org.matsim.legacy.analysis;
+
+/**
+ * Regular grid of square cells within a bounding box, used to aggregate link based analyses spatially.
+ * Cells are numbered row by row, starting at the lower left corner.
+ * If the extent is not a multiple of the cell size, the last column and row reach past the bounding box,
+ * but only the parts within the bounding box belong to the grid.
+ *
+ * @param cellSize edge length of a cell, which is also the gap between receiver points for noise analysis
+ */
+public record RasterGrid(double xMin, double yMin, double xMax, double yMax, double cellSize) {
+
+	public RasterGrid {
+		if (xMax <= xMin || yMax <= yMin)
+			throw new IllegalArgumentException("Empty bounding box");
+		if (cellSize <= 0)
+			throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+	}
+
+	/**
+	 * Number of columns.
+	 */
+	public int cols() {
+		return (int) Math.ceil((xMax - xMin) / cellSize);
+	}
+
+	/**
+	 * Number of rows.
+	 */
+	public int rows() {
+		return (int) Math.ceil((yMax - yMin) / cellSize);
+	}
+
+	/**
+	 * Total number of cells.
+	 */
+	public int size() {
+		return cols() * rows();
+	}
+
+	/**
+	 * Cell containing a coordinate.
+	 *
+	 * @return -1 if the coordinate is outside the bounding box, where the upper bounds are exclusive
+	 */
+	public int cell(double x, double y) {
+		if (x < xMin || y < yMin || x >= xMax || y >= yMax)
+			return -1;
+
+		int col = (int) Math.floor((x - xMin) / cellSize);
+		int row = (int) Math.floor((y - yMin) / cellSize);
+
+		if (col < 0 || row < 0 || col >= cols() || row >= rows())
+			return -1;
+
+		return row * cols() + col;
+	}
+
+	/**
+	 * X coordinate of the cell center.
+	 */
+	public double centerX(int cell) {
+		return xMin + (cell % cols() + 0.5) * cellSize;
+	}
+
+	/**
+	 * Y coordinate of the cell center.
+	 */
+	public double centerY(int cell) {
+		return yMin + (cell / cols() + 0.5) * cellSize;
+	}
+}
@@ -79,17 +79,10 @@ public class RunOfflineNoiseAnalysis {
 		// adjust the default noise parameters
 
 		NoiseConfigGroup noiseParameters = (NoiseConfigGroup) config.getModules().get(NoiseConfigGroup.GROUP_NAME);
-		noiseParameters.setReceiverPointGap(receiverPointGap);
 
-		double xMin = 4573258.;
-		double yMin = 5801225.;
-		double xMax = 4620323.;
-		double yMax = 5839639.;
-
-		noiseParameters.setReceiverPointsGridMinX(xMin);
-		noiseParameters.setReceiverPointsGridMinY(yMin);
-		noiseParameters.setReceiverPointsGridMaxX(xMax);
-		noiseParameters.setReceiverPointsGridMaxY(yMax);
+		// receiver points span the same extent and gap as a raster grid, the noise values themselves are computed by the noise contrib
+		RasterGrid grid = new RasterGrid(4573258., 5801225., 4620323., 5839639., receiverPointGap);
+		configureReceiverPoints(noiseParameters, grid);
 
 		String[] consideredActivitiesForDamages = {"home*", "work*", "leisure*", "shopping*", "other*"};
 		noiseParameters.setConsideredActivitiesForDamageCalculationArray(consideredActivitiesForDamages);
@@ -138,6 +131,19 @@ public class RunOfflineNoiseAnalysis {
 
 		log.info("Done.");
 	}
+
+	/**
+	 * Use the extent and cell size of the grid for the receiver points of the noise computation.
+	 * Only the bounding box and the gap are shared, the noise contrib places the receiver points itself,
+	 * so they do not necessarily coincide with the cell centers of the grid.
+	 */
+	static void configureReceiverPoints(NoiseConfigGroup noiseParameters, RasterGrid grid) {
+		noiseParameters.setReceiverPointGap(grid.cellSize());
+		noiseParameters.setReceiverPointsGridMinX(grid.xMin());
+		noiseParameters.setReceiverPointsGridMinY(grid.yMin());
+		noiseParameters.setReceiverPointsGridMaxX(grid.xMax());
+		noiseParameters.setReceiverPointsGridMaxY(grid.yMax());
+	}
 }
 
 
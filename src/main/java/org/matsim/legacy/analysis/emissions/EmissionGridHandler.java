@@ -0,0 +1,70 @@
+package org.matsim.legacy.analysis.emissions;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.ColdEmissionEventHandler;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEventHandler;
+import org.matsim.legacy.analysis.LinkRasterizer;
+import org.matsim.legacy.analysis.RasterGrid;
+
+/**
+ * Rasterises emissions of selected pollutants onto a grid while the emission events are processed.
+ * Each pollutant is one layer of the {@link LinkRasterizer}, in the order given on creation.
+ */
+public class EmissionGridHandler implements WarmEmissionEventHandler, ColdEmissionEventHandler {
+
+	private final LinkRasterizer rasterizer;
+	private final List<Pollutant> pollutants;
+
+	/**
+	 * Layer for each pollutant ordinal, -1 if not considered.
+	 */
+	private final int[] layers = new int[Pollutant.values().length];
+
+	public EmissionGridHandler(Network network, RasterGrid grid, int bins, double binSize, Pollutant... pollutants) {
+		this.rasterizer = new LinkRasterizer(network, grid, pollutants.length, bins, binSize);
+		this.pollutants = List.of(pollutants);
+
+		Arrays.fill(layers, -1);
+		for (int i = 0; i < pollutants.length; i++) {
+			layers[pollutants[i].ordinal()] = i;
+		}
+	}
+
+	@Override
+	public void handleEvent(WarmEmissionEvent event) {
+		handleEmissionEvent(event.getTime(), event.getLinkId(), event.getWarmEmissions());
+	}
+
+	@Override
+	public void handleEvent(ColdEmissionEvent event) {
+		handleEmissionEvent(event.getTime(), event.getLinkId(), event.getColdEmissions());
+	}
+
+	private void handleEmissionEvent(double time, Id<Link> linkId, Map<Pollutant, Double> emissions) {
+		for (Map.Entry<Pollutant, Double> e : emissions.entrySet()) {
+			int layer = layers[e.getKey().ordinal()];
+			if (layer >= 0)
+				rasterizer.add(linkId, time, layer, e.getValue());
+		}
+	}
+
+	public LinkRasterizer getRasterizer() {
+		return rasterizer;
+	}
+
+	/**
+	 * Considered pollutants, in the order of the layers.
+	 */
+	public List<Pollutant> getPollutants() {
+		return pollutants;
+	}
+}
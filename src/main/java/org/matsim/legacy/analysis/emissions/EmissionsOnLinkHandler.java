@@ -1,6 +1,5 @@
 package org.matsim.legacy.analysis.emissions;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import org.matsim.api.core.v01.Id;
@@ -13,39 +12,52 @@ import org.matsim.contrib.emissions.events.WarmEmissionEventHandler;
 
 public class EmissionsOnLinkHandler implements WarmEmissionEventHandler, ColdEmissionEventHandler {
 
-    private final Map<Id<Link>, Map<Pollutant, Double>> link2pollutants = new HashMap<>();
+    private final LinkEmissionsAccumulator accumulator;
+
+    /**
+     * Whether the accumulator was created by this handler, only then it is cleared on reset.
+     */
+    private final boolean owner;
+
+    public EmissionsOnLinkHandler() {
+        this.accumulator = new LinkEmissionsAccumulator();
+        this.owner = true;
+    }
+
+    /**
+     * Add emissions to an existing accumulator, which may be shared with other handlers.
+     * The accumulator is not cleared on {@link #reset(int)}, this is the responsibility of its owner.
+     */
+    public EmissionsOnLinkHandler(LinkEmissionsAccumulator accumulator) {
+        this.accumulator = accumulator;
+        this.owner = false;
+    }
 
     @Override
     public void reset(int iteration) {
-    	link2pollutants.clear();
+        if (owner)
+            accumulator.clear();
     }
 
     @Override
     public void handleEvent(WarmEmissionEvent event) {
-    	Map<Pollutant,Double> map = new HashMap<>() ;
-        for( Map.Entry<Pollutant, Double> entry : event.getWarmEmissions().entrySet() ){
-            map.put( entry.getKey(), entry.getValue() ) ;
-        }
-        handleEmissionEvent(event.getTime(), event.getLinkId(), map );
+        accumulator.add(event.getLinkId(), event.getTime(), event.getWarmEmissions());
     }
 
     @Override
     public void handleEvent(ColdEmissionEvent event) {
-        handleEmissionEvent(event.getTime(), event.getLinkId(), event.getColdEmissions());
+        accumulator.add(event.getLinkId(), event.getTime(), event.getColdEmissions());
     }
 
-    private void handleEmissionEvent(double time, Id<Link> linkId, Map<Pollutant, Double> emissions) {
-    	if (link2pollutants.get(linkId) == null) {
-    		link2pollutants.put(linkId, emissions);
-    	} else {
-    		for (Pollutant pollutant : emissions.keySet()) {
-    			link2pollutants.get(linkId).merge(pollutant, emissions.get(pollutant), Double::sum);
-    		}
-    	}
-    }
+	public LinkEmissionsAccumulator getAccumulator() {
+		return accumulator;
+	}
 
+	/**
+	 * Emissions per link as boxed map. Prefer {@link #getAccumulator()}, this creates a copy of all values.
+	 */
 	public Map<Id<Link>, Map<Pollutant, Double>> getLink2pollutants() {
-		return link2pollutants;
+		return accumulator.toMap();
 	}
 
 }
@@ -25,15 +25,16 @@ import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.GeometryFactory;
+import org.matsim.api.core.v01.network.Network;
 import org.matsim.contrib.emissions.Pollutant;
-import org.matsim.contrib.emissions.analysis.FastEmissionGridAnalyzer;
+import org.matsim.contrib.emissions.events.EmissionEventsReader;
+import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.events.EventsUtils;
 import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.utils.geometry.geotools.MGC;
+import org.matsim.legacy.analysis.LinkRasterizer;
+import org.matsim.legacy.analysis.RasterGrid;
 
 /**
  * @author amit, ihab, janek
@@ -67,49 +68,39 @@ public abstract class GenerateAirPollutionSpatialPlots {
         final String networkFile = runDir + runId + "output_network.xml.gz";
         final String outputFile = runDir + runId + ".emissions." + Pollutant.NOx + ".csv";
 
-        // filter the network onto the bounding box. This way only the links within the bounding box will collect emissions
-        var boundingBox = createBoundingBox();
-
         Config config = ConfigUtils.loadConfig(configFile);
+        Network network = NetworkUtils.readNetwork(networkFile, config);
 
-        var filteredNetwork = NetworkUtils.readNetwork(networkFile, config).getLinks().values().parallelStream()
-                .filter(link -> boundingBox.covers(MGC.coord2Point(link.getFromNode().getCoord())) || boundingBox.covers(MGC.coord2Point(link.getToNode().getCoord())))
-                .collect(NetworkUtils.getCollector(config));
+        // link emissions are distributed onto the cells crossed by the link, parts outside the bounding box are dropped
+        EmissionGridHandler handler = new EmissionGridHandler(network, new RasterGrid(xMin, yMin, xMax, yMax, gridSize), 1, Double.POSITIVE_INFINITY, Pollutant.NOx);
 
-        // do the actual rastering. Reducing the radius will lead to less smoothed emissions
-        // reduce to 0, to only draw emissions onto cells which are covered by a link.
-        var rasterMap = FastEmissionGridAnalyzer.processEventsFile(events, filteredNetwork, gridSize, 20);
+        EventsManager manager = EventsUtils.createEventsManager();
+        manager.addHandler(handler);
+        manager.initProcessing();
+        new EmissionEventsReader(manager).readFile(events);
+        manager.finishProcessing();
 
         // write the raster for nox
-        var noxRaster = rasterMap.get(Pollutant.NOx);
+        LinkRasterizer raster = handler.getRasterizer();
+        double[] noxRaster = raster.getTotalRaster(0);
+
+        // raster values are the emissions within each cell, without smoothing only cells crossed by links have values
+        double cellAreaHa = gridSize * gridSize / 10_000;
         try (CSVPrinter printer = new CSVPrinter(new FileWriter(outputFile), CSVFormat.TDF)) {
 
             // write header
             printer.printRecord("x", "y", Pollutant.NOx);
 
             // write values
-            noxRaster.forEachCoordinate((x, y, value) -> {
-
-                // skip values smaller than 0.1g/ha to reduce file size
-                if (value < 0.1)  return;
-
-                // unfortunately one has to wrap this in try/catch because it is inside a lambda function
-                try {
-                    printer.printRecord(x, y, value * scaleFactor);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            });
+            for (int cell = 0; cell < noxRaster.length; cell++) {
+
+                // skip values smaller than 0.1g/ha (in the sample, before scaling) to reduce file size
+                if (noxRaster[cell] / cellAreaHa < 0.1) continue;
+
+                printer.printRecord(raster.getGrid().centerX(cell), raster.getGrid().centerY(cell), noxRaster[cell] * scaleFactor);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
-
-    private static Geometry createBoundingBox() {
-        return new GeometryFactory().createPolygon(new Coordinate[]{
-                new Coordinate(xMin, yMin), new Coordinate(xMax, yMin),
-                new Coordinate(xMax, yMax), new Coordinate(xMin, yMax),
-                new Coordinate(xMin, yMin)
-        });
-    }
 }
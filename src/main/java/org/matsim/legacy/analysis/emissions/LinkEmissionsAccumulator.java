@@ -0,0 +1,331 @@
+package org.matsim.legacy.analysis.emissions;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.core.utils.io.IOUtils;
+
+/**
+ * Sums up emissions per link and pollutant, optionally also per time bin.
+ * Values are stored in one dense array, indexed by {@link Id#index()} of the link, the time bin and the pollutant ordinal.
+ * <p>
+ * Adding emissions is thread-safe. Links are distributed over a fixed number of locks,
+ * so that multiple threads can add emissions on different links at the same time.
+ * Results should only be read after all emissions have been added.
+ */
+public final class LinkEmissionsAccumulator {
+
+	private static final Pollutant[] POLLUTANTS = Pollutant.values();
+	private static final int STRIPES = 64;
+
+	private final int bins;
+	private final double binSize;
+	private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+	private volatile double[] values;
+	private volatile boolean[] used;
+
+	/**
+	 * Bit mask of the pollutant ordinals that occurred on each link.
+	 */
+	private volatile long[] occurred;
+
+	static {
+		if (POLLUTANTS.length > Long.SIZE)
+			throw new IllegalStateException("Too many pollutants for bit mask: " + POLLUTANTS.length);
+	}
+
+	/**
+	 * Accumulator without time dimension.
+	 */
+	public LinkEmissionsAccumulator() {
+		this(1, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Accumulator with time bins. Emissions after the last bin are added to the last bin.
+	 *
+	 * @param bins    number of time bins
+	 * @param binSize size of each bin in seconds
+	 */
+	public LinkEmissionsAccumulator(int bins, double binSize) {
+		if (bins < 1)
+			throw new IllegalArgumentException("At least one time bin is required");
+
+		this.bins = bins;
+		this.binSize = binSize;
+
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new ReentrantLock();
+		}
+
+		int links = Math.max(16, Id.getNumberOfIds(Link.class));
+		this.values = new double[links * bins * POLLUTANTS.length];
+		this.used = new boolean[links];
+		this.occurred = new long[links];
+	}
+
+	/**
+	 * Number of time bins.
+	 */
+	public int getNumberOfBins() {
+		return bins;
+	}
+
+	/**
+	 * Time bin for a time of day.
+	 */
+	public int getBin(double time) {
+		return bins == 1 ? 0 : Math.min(bins - 1, Math.max(0, (int) (time / binSize)));
+	}
+
+	/**
+	 * Add emissions of one event.
+	 */
+	public void add(Id<Link> linkId, double time, Map<Pollutant, Double> emissions) {
+
+		int link = linkId.index();
+		int offset = (link * bins + getBin(time)) * POLLUTANTS.length;
+
+		// Capacity only increases, so the check can be done without lock
+		if (link >= used.length)
+			grow(link);
+
+		ReentrantLock lock = locks[link % STRIPES];
+		lock.lock();
+		try {
+			double[] v = values;
+			long mask = 0;
+			for (Map.Entry<Pollutant, Double> e : emissions.entrySet()) {
+				v[offset + e.getKey().ordinal()] += e.getValue();
+				mask |= 1L << e.getKey().ordinal();
+			}
+			used[link] = true;
+			occurred[link] |= mask;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Increase the capacity, while holding all locks.
+	 */
+	private void grow(int link) {
+
+		for (ReentrantLock lock : locks) {
+			lock.lock();
+		}
+
+		try {
+			if (link >= used.length) {
+				int size = Math.max(link + 1, used.length * 2);
+				values = Arrays.copyOf(values, size * bins * POLLUTANTS.length);
+				used = Arrays.copyOf(used, size);
+				occurred = Arrays.copyOf(occurred, size);
+			}
+		} finally {
+			for (ReentrantLock lock : locks) {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Add all emissions of another accumulator with the same time bins.
+	 */
+	public void merge(LinkEmissionsAccumulator other) {
+
+		if (other.bins != bins || Double.compare(other.binSize, binSize) != 0)
+			throw new IllegalArgumentException("Time bins of the accumulators differ");
+
+		if (other.used.length > used.length)
+			grow(other.used.length - 1);
+
+		for (int link = 0; link < other.used.length; link++) {
+			if (!other.used[link])
+				continue;
+
+			ReentrantLock lock = locks[link % STRIPES];
+			lock.lock();
+			try {
+				int offset = link * bins * POLLUTANTS.length;
+				for (int i = 0; i < bins * POLLUTANTS.length; i++) {
+					values[offset + i] += other.values[offset + i];
+				}
+				used[link] = true;
+				occurred[link] |= other.occurred[link];
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Remove all emissions, while holding all locks.
+	 * If the accumulator is shared, only its owner should clear it.
+	 */
+	public void clear() {
+
+		for (ReentrantLock lock : locks) {
+			lock.lock();
+		}
+
+		try {
+			Arrays.fill(values, 0);
+			Arrays.fill(used, false);
+			Arrays.fill(occurred, 0);
+		} finally {
+			for (ReentrantLock lock : locks) {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Whether any emissions were added for this link.
+	 */
+	public boolean hasEmissions(Id<Link> linkId) {
+		return linkId.index() < used.length && used[linkId.index()];
+	}
+
+	/**
+	 * Emissions of a pollutant on a link in one time bin.
+	 */
+	public double get(Id<Link> linkId, int bin, Pollutant pollutant) {
+		if (!hasEmissions(linkId))
+			return 0;
+
+		return values[(linkId.index() * bins + bin) * POLLUTANTS.length + pollutant.ordinal()];
+	}
+
+	/**
+	 * Total emissions of a pollutant on a link.
+	 */
+	public double get(Id<Link> linkId, Pollutant pollutant) {
+		double sum = 0;
+		for (int bin = 0; bin < bins; bin++) {
+			sum += get(linkId, bin, pollutant);
+		}
+		return sum;
+	}
+
+	/**
+	 * Total emissions of a pollutant for all links, indexed by {@link Id#index()}.
+	 */
+	public double[] getColumn(Pollutant pollutant) {
+
+		double[] v = values;
+		double[] column = new double[used.length];
+		for (int link = 0; link < column.length; link++) {
+			for (int bin = 0; bin < bins; bin++) {
+				column[link] += v[(link * bins + bin) * POLLUTANTS.length + pollutant.ordinal()];
+			}
+		}
+
+		return column;
+	}
+
+	/**
+	 * Total emissions for each link, as map of boxed values. Only pollutants that occurred on a link are contained in its map.
+	 */
+	public Map<Id<Link>, Map<Pollutant, Double>> toMap() {
+
+		Map<Id<Link>, Map<Pollutant, Double>> result = new HashMap<>();
+		for (int link = 0; link < used.length; link++) {
+			if (!used[link])
+				continue;
+
+			Id<Link> linkId = Id.get(link, Link.class);
+			Map<Pollutant, Double> pollutants = new HashMap<>();
+			for (Pollutant pollutant : POLLUTANTS) {
+				if ((occurred[link] & (1L << pollutant.ordinal())) != 0)
+					pollutants.put(pollutant, get(linkId, pollutant));
+			}
+			result.put(linkId, pollutants);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Write total emissions of all links in grams, with one column per pollutant.
+	 */
+	public void writeCsv(String file) throws IOException {
+		write(file, null, false);
+	}
+
+	/**
+	 * Write total emissions of all links in grams per meter. Links that are not in the network are written as NaN.
+	 */
+	public void writeCsvPerMeter(String file, Network network) throws IOException {
+		write(file, network, false);
+	}
+
+	/**
+	 * Write emissions of all links in grams, with one row per link and time bin.
+	 */
+	public void writeCsvPerTimeBin(String file) throws IOException {
+		write(file, null, true);
+	}
+
+	private void write(String file, Network network, boolean perBin) throws IOException {
+
+		try (BufferedWriter bw = IOUtils.getBufferedWriter(file)) {
+
+			bw.write("linkId");
+			if (perBin)
+				bw.write(";time");
+
+			String unit = network != null ? " [g/m]" : " [g]";
+			for (Pollutant pollutant : POLLUTANTS) {
+				bw.write(";" + pollutant + unit);
+			}
+			bw.newLine();
+
+			double[][] columns = null;
+			if (!perBin) {
+				columns = new double[POLLUTANTS.length][];
+				for (Pollutant pollutant : POLLUTANTS) {
+					columns[pollutant.ordinal()] = getColumn(pollutant);
+				}
+			}
+
+			for (int link = 0; link < used.length; link++) {
+				if (!used[link])
+					continue;
+
+				Id<Link> linkId = Id.get(link, Link.class);
+
+				double length = Double.NaN;
+				if (network != null) {
+					Link l = network.getLinks().get(linkId);
+					if (l != null)
+						length = l.getLength();
+				}
+
+				for (int bin = 0; bin < (perBin ? bins : 1); bin++) {
+
+					bw.write(linkId.toString());
+					if (perBin)
+						bw.write(";" + bin * binSize);
+
+					for (Pollutant pollutant : POLLUTANTS) {
+						double value = perBin ? get(linkId, bin, pollutant) : columns[pollutant.ordinal()][link];
+						bw.write(";" + (network != null ? value / length : value));
+					}
+					bw.newLine();
+				}
+			}
+		}
+	}
+
+}
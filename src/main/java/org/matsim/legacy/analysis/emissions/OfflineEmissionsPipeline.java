@@ -0,0 +1,174 @@
+package org.matsim.legacy.analysis.emissions;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.analysis.LinkEventsReplay;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.HasVehicleId;
+import org.matsim.api.core.v01.events.handler.BasicEventHandler;
+import org.matsim.contrib.emissions.EmissionModule;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Injector;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.algorithms.EventWriterXML;
+
+/**
+ * Computes emissions of an events file with multiple threads.
+ * Events are sharded by vehicle, so that each shard can use its own {@link EmissionModule} and {@link LinkEmissionsAccumulator}.
+ * Link emissions of all shards are merged at the end.
+ * <p>
+ * The scenario, including vehicle types and hbefa road types, has to be fully prepared before, it is only read by the shards.
+ * <p>
+ * Each shard loads its own hbefa lookup tables, because the {@link EmissionModule} does not allow to share them.
+ * Memory and startup time therefore grow with the number of shards, which is why the default is capped at {@link #MAX_DEFAULT_SHARDS}.
+ */
+public final class OfflineEmissionsPipeline {
+
+	private static final Logger log = LogManager.getLogger(OfflineEmissionsPipeline.class);
+
+	/**
+	 * Upper bound for the default number of shards.
+	 */
+	public static final int MAX_DEFAULT_SHARDS = 4;
+
+	private final Scenario scenario;
+	private final int shards;
+
+	private String emissionEventsFile;
+
+	/**
+	 * Create pipeline with given number of threads.
+	 */
+	public OfflineEmissionsPipeline(Scenario scenario, int shards) {
+		if (shards < 1)
+			throw new IllegalArgumentException("At least one shard is required: " + shards);
+
+		this.scenario = scenario;
+		this.shards = shards;
+	}
+
+	/**
+	 * Create pipeline with the {@link #defaultShards() default} number of threads.
+	 */
+	public OfflineEmissionsPipeline(Scenario scenario) {
+		this(scenario, defaultShards());
+	}
+
+	/**
+	 * All but one of the available processors, but at most {@link #MAX_DEFAULT_SHARDS}.
+	 */
+	public static int defaultShards() {
+		return Math.max(1, Math.min(MAX_DEFAULT_SHARDS, Runtime.getRuntime().availableProcessors() - 1));
+	}
+
+	/**
+	 * Also write all events, including the emission events, to a file. Each event is written once, but events of different vehicles
+	 * are not strictly ordered by time in this file.
+	 */
+	public void setEmissionEventsFile(String emissionEventsFile) {
+		this.emissionEventsFile = emissionEventsFile;
+	}
+
+	/**
+	 * Read the events and compute emissions per link.
+	 */
+	public LinkEmissionsAccumulator run(String eventsFile) throws InterruptedException {
+
+		EventWriterXML writer = emissionEventsFile != null ? new EventWriterXML(emissionEventsFile) : null;
+
+		LinkEventsReplay replay = LinkEventsReplay.byVehicle(shards);
+		AtomicInteger index = new AtomicInteger();
+		List<Shard> handlers = replay.addHandler(() -> new Shard(index.getAndIncrement(), writer));
+
+		log.info("Computing emissions with {} threads...", shards);
+
+		replay.readEvents(eventsFile);
+
+		LinkEmissionsAccumulator result = new LinkEmissionsAccumulator();
+		for (Shard shard : handlers) {
+			shard.events.finishProcessing();
+			result.merge(shard.emissions.getAccumulator());
+		}
+
+		if (writer != null)
+			writer.closeFile();
+
+		log.info("Done computing emissions.");
+		return result;
+	}
+
+	/**
+	 * Passes the events of one shard to its own emission module.
+	 */
+	private final class Shard implements BasicEventHandler {
+
+		private final EventsManager events = EventsUtils.createEventsManager();
+		private final EmissionsOnLinkHandler emissions = new EmissionsOnLinkHandler();
+
+		private Shard(int index, EventWriterXML writer) {
+
+			AbstractModule module = new AbstractModule() {
+				@Override
+				public void install() {
+					bind(Scenario.class).toInstance(scenario);
+					bind(EventsManager.class).toInstance(events);
+					bind(EmissionModule.class);
+				}
+			};
+
+			com.google.inject.Injector injector = Injector.createInjector(scenario.getConfig(), module);
+			EmissionModule emissionModule = injector.getInstance(EmissionModule.class);
+
+			if (writer != null)
+				emissionModule.getEmissionEventsManager().addHandler(new ShardWriter(index, writer));
+
+			events.addHandler(emissions);
+			events.initProcessing();
+		}
+
+		@Override
+		public void handleEvent(Event event) {
+			events.processEvent(event);
+		}
+	}
+
+	/**
+	 * Writes the events of one shard to a writer shared by all shards. Events without vehicle are passed to all shards
+	 * by {@link LinkEventsReplay#byVehicle(int)}, so they are only written by the first shard.
+	 */
+	static final class ShardWriter implements BasicEventHandler {
+
+		private final int index;
+		private final BasicEventHandler writer;
+
+		ShardWriter(int index, BasicEventHandler writer) {
+			this.index = index;
+			this.writer = writer;
+		}
+
+		@Override
+		public void handleEvent(Event event) {
+			if (index == 0 || isSharded(event)) {
+				synchronized (writer) {
+					writer.handleEvent(event);
+				}
+			}
+		}
+
+		/**
+		 * Whether the event is only seen by one shard, either because it was created there or because it was sharded by its vehicle.
+		 */
+		private static boolean isSharded(Event event) {
+			return event instanceof WarmEmissionEvent || event instanceof ColdEmissionEvent ||
+				event instanceof HasVehicleId v && v.getVehicleId() != null;
+		}
+	}
+
+}
@@ -25,29 +25,19 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
-import org.matsim.api.core.v01.network.Link;
-import org.matsim.contrib.emissions.EmissionModule;
 import org.matsim.contrib.emissions.HbefaVehicleCategory;
-import org.matsim.contrib.emissions.Pollutant;
 import org.matsim.contrib.emissions.VspHbefaRoadTypeMapping;
 import org.matsim.contrib.emissions.utils.EmissionsConfigGroup;
 import org.matsim.contrib.emissions.utils.EmissionsConfigGroup.DetailedVsAverageLookupBehavior;
 import org.matsim.contrib.emissions.utils.EmissionsConfigGroup.NonScenarioVehicles;
-import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
-import org.matsim.core.controler.AbstractModule;
-import org.matsim.core.controler.Injector;
-import org.matsim.core.events.EventsUtils;
-import org.matsim.core.events.MatsimEventsReader;
-import org.matsim.core.events.algorithms.EventWriterXML;
 import org.matsim.core.gbl.MatsimRandom;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.vehicles.EngineInformation;
@@ -70,6 +60,7 @@ public class RunOfflineAirPollutionAnalysisByEngineInformationWithDrt {
 	private final String hbefaWarmFile;
 	private final String hbefaColdFile;
 	private final String analysisOutputDirectory;
+	private int threads = OfflineEmissionsPipeline.defaultShards();
 
 	// provided by HBEFA for 2020
 	private final double petrolShare = 0.512744724750519;
@@ -93,9 +84,9 @@ public class RunOfflineAirPollutionAnalysisByEngineInformationWithDrt {
 		this.analysisOutputDirectory = analysisOutputDirectory;
 	}
 
-	public static void main(String[] args) throws IOException {
+	public static void main(String[] args) throws IOException, InterruptedException {
 
-		if (args.length == 1) {
+		if (args.length == 1 || args.length == 2) {
 			String rootDirectory = args[0];
 			if (!rootDirectory.endsWith("/")) rootDirectory = rootDirectory + "/";
 
@@ -111,14 +102,24 @@ public class RunOfflineAirPollutionAnalysisByEngineInformationWithDrt {
 					rootDirectory + hbefaFileWarm,
 					rootDirectory + hbefaFileCold,
 					runDirectory + "emission-analysis-hbefa-v4.1");
+			if (args.length == 2)
+				analysis.setThreads(Integer.parseInt(args[1]));
+
 			analysis.run();
 
 		} else {
-			throw new RuntimeException("Please set the root directory. Aborting...");
+			throw new RuntimeException("Please set the root directory and optionally the number of threads. Aborting...");
 		}
 	}
 
-	void run() throws IOException {
+	/**
+	 * Number of threads to compute emissions, each one loads its own hbefa tables.
+	 */
+	void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	void run() throws IOException, InterruptedException {
 
 		Config config = ConfigUtils.createConfig();
 		config.vehicles().setVehiclesFile(runDirectory + runId + ".output_allVehicles.xml.gz");
@@ -305,40 +306,10 @@ public class RunOfflineAirPollutionAnalysisByEngineInformationWithDrt {
 			log.info("Type for vehicle " + id + " changed to electric.");
 		}
 
-		// the following is copy paste from the example...
-
-		EventsManager eventsManager = EventsUtils.createEventsManager();
-
-		AbstractModule module = new AbstractModule(){
-			@Override
-			public void install(){
-				bind( Scenario.class ).toInstance( scenario );
-				bind( EventsManager.class ).toInstance( eventsManager );
-				bind( EmissionModule.class ) ;
-			}
-		};
-
-		com.google.inject.Injector injector = Injector.createInjector(config, module);
-
-        EmissionModule emissionModule = injector.getInstance(EmissionModule.class);
+		OfflineEmissionsPipeline pipeline = new OfflineEmissionsPipeline(scenario, threads);
+		pipeline.setEmissionEventsFile(emissionEventOutputFile);
 
-        EventWriterXML emissionEventWriter = new EventWriterXML(emissionEventOutputFile);
-        emissionModule.getEmissionEventsManager().addHandler(emissionEventWriter);
-
-        EmissionsOnLinkHandler emissionsEventHandler = new EmissionsOnLinkHandler();
-		eventsManager.addHandler(emissionsEventHandler);
-
-        eventsManager.initProcessing();
-
-        MatsimEventsReader matsimEventsReader = new MatsimEventsReader(eventsManager);
-        matsimEventsReader.readFile(eventsFile);
-
-        log.info("Done reading the events file.");
-        log.info("Finish processing...");
-        eventsManager.finishProcessing();
-
-        log.info("Closing events file...");
-        emissionEventWriter.closeFile();
+		LinkEmissionsAccumulator emissions = pipeline.run(eventsFile);
 
         log.info("Total number of vehicles: " + totalVehiclesCounter);
 		log.info("Number of passenger car vehicles: " + carVehiclesToChangeToSpecificType.size());
@@ -348,74 +319,11 @@ public class RunOfflineAirPollutionAnalysisByEngineInformationWithDrt {
 
         log.info("Writing output...");
 
-        {
-    		File file1 = new File(linkEmissionAnalysisFile);
-
-    		BufferedWriter bw1 = new BufferedWriter(new FileWriter(file1));
-
-    		bw1.write("linkId");
-
-    		for (Pollutant pollutant : Pollutant.values()) {
-    			bw1.write(";" + pollutant + " [g]");
-    		}
-    		bw1.newLine();
-
-    		Map<Id<Link>, Map<Pollutant, Double>> link2pollutants = emissionsEventHandler.getLink2pollutants();
-
-    		for (Id<Link> linkId : link2pollutants.keySet()) {
-    			bw1.write(linkId.toString());
-
-    			for (Pollutant pollutant : Pollutant.values()) {
-    				double value = 0.;
-    				if (link2pollutants.get(linkId).get(pollutant) != null) {
-    					value = link2pollutants.get(linkId).get(pollutant);
-    				}
-    				bw1.write(";" + value);
-    			}
-    			bw1.newLine();
-    		}
-
-    		bw1.close();
-    		log.info("Output written to " + linkEmissionAnalysisFile);
-        }
-
-        {
-    		File file1 = new File(linkEmissionPerMAnalysisFile);
-
-    		BufferedWriter bw1 = new BufferedWriter(new FileWriter(file1));
-
-    		bw1.write("linkId");
-
-    		for (Pollutant pollutant : Pollutant.values()) {
-    			bw1.write(";" + pollutant + " [g/m]");
-    		}
-    		bw1.newLine();
-
-    		Map<Id<Link>, Map<Pollutant, Double>> link2pollutants = emissionsEventHandler.getLink2pollutants();
-
-    		for (Id<Link> linkId : link2pollutants.keySet()) {
-    			bw1.write(linkId.toString());
-
-    			for (Pollutant pollutant : Pollutant.values()) {
-    				double emission = 0.;
-    				if (link2pollutants.get(linkId).get(pollutant) != null) {
-    					emission = link2pollutants.get(linkId).get(pollutant);
-    				}
-
-    				double emissionPerM = Double.NaN;
-    				Link link = scenario.getNetwork().getLinks().get(linkId);
-    				if (link != null) {
-    					emissionPerM = emission / link.getLength();
-    				}
-
-    				bw1.write(";" + emissionPerM);
-    			}
-    			bw1.newLine();
-    		}
+        emissions.writeCsv(linkEmissionAnalysisFile);
+        log.info("Output written to " + linkEmissionAnalysisFile);
 
-    		bw1.close();
-    		log.info("Output written to " + linkEmissionPerMAnalysisFile);
-        }
+        emissions.writeCsvPerMeter(linkEmissionPerMAnalysisFile, scenario.getNetwork());
+        log.info("Output written to " + linkEmissionPerMAnalysisFile);
 
 		{
 			File file2 = new File(vehicleTypeFile);
@@ -19,22 +19,19 @@
 
 package org.matsim.legacy.analysis.emissions;
 
+import java.io.IOException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
-import org.matsim.contrib.emissions.EmissionModule;
 import org.matsim.contrib.emissions.HbefaVehicleCategory;
 import org.matsim.contrib.emissions.VspHbefaRoadTypeMapping;
 import org.matsim.contrib.emissions.utils.EmissionsConfigGroup;
 import org.matsim.contrib.emissions.utils.EmissionsConfigGroup.DetailedVsAverageLookupBehavior;
 import org.matsim.contrib.emissions.utils.EmissionsConfigGroup.NonScenarioVehicles;
-import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
-import org.matsim.core.controler.AbstractModule;
-import org.matsim.core.controler.Injector;
-import org.matsim.core.events.EventsUtils;
-import org.matsim.core.events.MatsimEventsReader;
-import org.matsim.core.events.algorithms.EventWriterXML;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.vehicles.EngineInformation;
 import org.matsim.vehicles.VehicleType;
@@ -45,12 +42,14 @@ import org.matsim.vehicles.VehicleUtils;
 */
 
 public class RunOfflineAirPollutionAnalysisByVehicleCategory {
+	private static final Logger log = LogManager.getLogger(RunOfflineAirPollutionAnalysisByVehicleCategory.class);
 
 	private final String runDirectory;
 	private final String runId;
 	private final String hbefaWarmFile;
 	private final String hbefaColdFile;
 	private final String analysisOutputDirectory;
+	private int threads = OfflineEmissionsPipeline.defaultShards();
 
 	public RunOfflineAirPollutionAnalysisByVehicleCategory(String runDirectory, String runId, String hbefaFileWarm, String hbefaFileCold, String analysisOutputDirectory) {
 		this.runDirectory = runDirectory;
@@ -62,9 +61,9 @@ public class RunOfflineAirPollutionAnalysisByVehicleCategory {
 		this.analysisOutputDirectory = analysisOutputDirectory;
 	}
 
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException, InterruptedException {
 
-		if (args.length == 1) {
+		if (args.length == 1 || args.length == 2) {
 			String rootDirectory = args[0];
 			if (!rootDirectory.endsWith("/")) rootDirectory = rootDirectory + "/";
 
@@ -80,14 +79,24 @@ public class RunOfflineAirPollutionAnalysisByVehicleCategory {
 					rootDirectory + hbefaFileWarm,
 					rootDirectory + hbefaFileCold,
 					rootDirectory + runDirectory);
+			if (args.length == 2)
+				analysis.setThreads(Integer.parseInt(args[1]));
+
 			analysis.run();
 
 		} else {
-			throw new RuntimeException("Please set the root directory. Aborting...");
+			throw new RuntimeException("Please set the root directory and optionally the number of threads. Aborting...");
 		}
 	}
 
-	void run() {
+	/**
+	 * Number of threads to compute emissions, each one loads its own hbefa tables.
+	 */
+	void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	void run() throws IOException, InterruptedException {
 
 		Config config = ConfigUtils.createConfig();
 		config.vehicles().setVehiclesFile(runDirectory + runId + ".output_vehicles.xml.gz");
@@ -108,6 +117,8 @@ public class RunOfflineAirPollutionAnalysisByVehicleCategory {
 
 		final String emissionEventOutputFile = analysisOutputDirectory + runId + ".emission.events.offline.xml.gz";
 		final String eventsFile = runDirectory + runId + ".output_events.xml.gz";
+		final String linkEmissionAnalysisFile = analysisOutputDirectory + runId + ".emissionsPerLink.csv";
+		final String linkEmissionPerMAnalysisFile = analysisOutputDirectory + runId + ".emissionsPerLinkPerM.csv";
 
 		Scenario scenario = ScenarioUtils.loadScenario(config);
 
@@ -144,32 +155,16 @@ public class RunOfflineAirPollutionAnalysisByVehicleCategory {
 			VehicleUtils.setHbefaEmissionsConcept( engineInformation, "average" );
 		}
 
-		// the following is copy paste from the example...
-
-        EventsManager eventsManager = EventsUtils.createEventsManager();
-
-		AbstractModule module = new AbstractModule(){
-			@Override
-			public void install(){
-				bind( Scenario.class ).toInstance( scenario );
-				bind( EventsManager.class ).toInstance( eventsManager );
-				bind( EmissionModule.class ) ;
-			}
-		};
-
-		com.google.inject.Injector injector = Injector.createInjector(config, module);
-
-        EmissionModule emissionModule = injector.getInstance(EmissionModule.class);
+		OfflineEmissionsPipeline pipeline = new OfflineEmissionsPipeline(scenario, threads);
+		pipeline.setEmissionEventsFile(emissionEventOutputFile);
 
-        EventWriterXML emissionEventWriter = new EventWriterXML(emissionEventOutputFile);
-        emissionModule.getEmissionEventsManager().addHandler(emissionEventWriter);
+		LinkEmissionsAccumulator emissions = pipeline.run(eventsFile);
 
-        eventsManager.initProcessing();
-        MatsimEventsReader matsimEventsReader = new MatsimEventsReader(eventsManager);
-        matsimEventsReader.readFile(eventsFile);
-        eventsManager.finishProcessing();
+        emissions.writeCsv(linkEmissionAnalysisFile);
+        log.info("Output written to " + linkEmissionAnalysisFile);
 
-        emissionEventWriter.closeFile();
+        emissions.writeCsvPerMeter(linkEmissionPerMAnalysisFile, scenario.getNetwork());
+        log.info("Output written to " + linkEmissionPerMAnalysisFile);
 	}
 
 }
@@ -29,6 +29,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 import org.geotools.api.data.FileDataStore;
@@ -50,11 +51,17 @@ import org.matsim.core.utils.gis.ShapeFileReader;
 public final class BerlinShpUtils {
 
 	private Map<Integer, Geometry> serviceAreaGeometries;
-	private Map<Double, Map<Integer, Geometry>> serviceAreaGeometriesWithBuffer = new HashMap<>();
+	private ServiceAreaIndex serviceAreaIndex;
+
+	/**
+	 * Indices of the service area with buffer, created on first use. Can be accessed from multiple threads.
+	 */
+	private final Map<Double, ServiceAreaIndex> serviceAreaIndexWithBuffer = new ConcurrentHashMap<>();
 
 	public BerlinShpUtils(String drtServiceAreaShapeFile) {
 		if (drtServiceAreaShapeFile != null && drtServiceAreaShapeFile != "" && drtServiceAreaShapeFile != "null" ) {
 			this.serviceAreaGeometries = loadShapeFile(drtServiceAreaShapeFile);
+			this.serviceAreaIndex = new ServiceAreaIndex(serviceAreaGeometries.values());
 		}
 	}
 
@@ -81,34 +88,19 @@ public final class BerlinShpUtils {
 	}
 
 	public boolean isCoordInDrtServiceArea(Coord coord) {
-		return isCoordInArea(coord, serviceAreaGeometries);
+		return serviceAreaIndex.contains(coord);
 	}
 
 	public boolean isCoordInDrtServiceAreaWithBuffer(Coord coord, double buffer) {
-		if (!serviceAreaGeometriesWithBuffer.containsKey(buffer)) {
-			serviceAreaGeometriesWithBuffer.put(buffer, prepareAndSaveGeometriesWithBuffer(serviceAreaGeometries, buffer));
-		}
-		return isCoordInArea(coord, serviceAreaGeometriesWithBuffer.get(buffer));
+		return serviceAreaIndexWithBuffer.computeIfAbsent(buffer, b -> prepareIndexWithBuffer(serviceAreaGeometries, b)).contains(coord);
 	}
 
-	private Map<Integer, Geometry> prepareAndSaveGeometriesWithBuffer(Map<Integer, Geometry> geometries, double buffer) {
-		Map<Integer, Geometry> geometriesWithBuffer = new HashMap<>();
-		for (Map.Entry<Integer, Geometry> entry: geometries.entrySet()) {
-			geometriesWithBuffer.put(entry.getKey(), entry.getValue().buffer(buffer));
-		}
-		return geometriesWithBuffer;
-	}
-
-	private boolean isCoordInArea(Coord coord, Map<Integer, Geometry> areaGeometries) {
-		boolean coordInArea = false;
-		for (Geometry geometry : areaGeometries.values()) {
-			Point p = MGC.coord2Point(coord);
-
-			if (p.within(geometry)) {
-				coordInArea = true;
-			}
+	private static ServiceAreaIndex prepareIndexWithBuffer(Map<Integer, Geometry> geometries, double buffer) {
+		List<Geometry> geometriesWithBuffer = new ArrayList<>();
+		for (Geometry geometry : geometries.values()) {
+			geometriesWithBuffer.add(geometry.buffer(buffer));
 		}
-		return coordInArea;
+		return new ServiceAreaIndex(geometriesWithBuffer);
 	}
 
 	static Collection<SimpleFeature> getAllFeatures(final URL url) {
@@ -0,0 +1,172 @@
+package org.matsim.legacy.run.drt;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.utils.io.IOUtils;
+
+/**
+ * Determines the car links that have at least one node within the buffered drt service area.
+ * Nodes are checked in parallel against a {@link ServiceAreaIndex}. The resulting link set is cached on disk,
+ * keyed by the content of the network, the shape file, the buffer and {@link #CACHE_VERSION}, so that repeated runs can skip the computation.
+ */
+public final class DrtServiceAreaLinks {
+
+	private static final Logger log = LogManager.getLogger(DrtServiceAreaLinks.class);
+
+	/**
+	 * Version of the cache format and the link selection, needs to be increased whenever one of them changes.
+	 */
+	static final int CACHE_VERSION = 1;
+
+	private DrtServiceAreaLinks() {
+	}
+
+	/**
+	 * Default location of the cache, in the temporary directory.
+	 */
+	public static Path defaultCacheDirectory() {
+		return Path.of(System.getProperty("java.io.tmpdir"), "matsim-berlin-drt-links");
+	}
+
+	/**
+	 * Return the links within the buffered service area, from cache if available.
+	 *
+	 * @param cacheDirectory directory to store results, can be null to disable caching
+	 */
+	public static Set<Id<Link>> get(Network network, String drtServiceAreaShapeFile, double buffer, Path cacheDirectory) {
+
+		Path cacheFile = null;
+		if (cacheDirectory != null) {
+			String key = "v%d-%016x-%s-%s".formatted(CACHE_VERSION, hash(network), hash(drtServiceAreaShapeFile), Double.toString(buffer));
+			cacheFile = cacheDirectory.resolve("drt-links-" + key + ".txt.gz");
+
+			if (Files.exists(cacheFile)) {
+				log.info("Reading drt links from cache {}", cacheFile);
+				return read(cacheFile);
+			}
+		}
+
+		Set<Id<Link>> links = compute(network, drtServiceAreaShapeFile, buffer);
+
+		if (cacheFile != null) {
+			try {
+				write(cacheFile, links);
+			} catch (UncheckedIOException e) {
+				log.warn("Could not write drt link cache {}", cacheFile, e);
+			}
+		}
+
+		return links;
+	}
+
+	/**
+	 * Compute the links within the buffered service area, without cache.
+	 */
+	public static Set<Id<Link>> compute(Network network, String drtServiceAreaShapeFile, double buffer) {
+
+		BerlinShpUtils shpUtils = new BerlinShpUtils(drtServiceAreaShapeFile);
+
+		// Each node is checked only once, even though it is shared by multiple links
+		Set<Id<Node>> nodes = network.getNodes().values().parallelStream()
+			.filter(node -> shpUtils.isCoordInDrtServiceAreaWithBuffer(node.getCoord(), buffer))
+			.map(Node::getId)
+			.collect(Collectors.toSet());
+
+		return network.getLinks().values().parallelStream()
+			.filter(link -> link.getAllowedModes().contains(TransportMode.car))
+			.filter(link -> nodes.contains(link.getFromNode().getId()) || nodes.contains(link.getToNode().getId()))
+			.map(Link::getId)
+			.collect(Collectors.toSet());
+	}
+
+	/**
+	 * Hash of the car links and their node coordinates, independent of iteration order.
+	 */
+	static long hash(Network network) {
+		return network.getLinks().values().parallelStream()
+			.filter(link -> link.getAllowedModes().contains(TransportMode.car))
+			.mapToLong(link -> {
+				long h = link.getId().toString().hashCode();
+				h = mix(h + Double.doubleToLongBits(link.getFromNode().getCoord().getX()));
+				h = mix(h + Double.doubleToLongBits(link.getFromNode().getCoord().getY()));
+				h = mix(h + Double.doubleToLongBits(link.getToNode().getCoord().getX()));
+				return mix(h + Double.doubleToLongBits(link.getToNode().getCoord().getY()));
+			})
+			.sum();
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Hash of the file content.
+	 */
+	private static String hash(String file) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			try (InputStream in = new DigestInputStream(IOUtils.getInputStream(IOUtils.resolveFileOrResource(file)), digest)) {
+				in.transferTo(OutputStream.nullOutputStream());
+			}
+			return HexFormat.of().formatHex(digest.digest(), 0, 8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Set<Id<Link>> read(Path file) {
+		try (BufferedReader reader = IOUtils.getBufferedReader(file.toString())) {
+			return reader.lines()
+				.filter(line -> !line.isBlank())
+				.map(line -> Id.createLinkId(line))
+				.collect(Collectors.toSet());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void write(Path file, Set<Id<Link>> links) {
+		try {
+			Files.createDirectories(file.getParent());
+
+			// Write to a temporary file first, so that concurrent runs never read incomplete files
+			Path tmp = Files.createTempFile(file.getParent(), "drt-links", ".txt.gz");
+			try (BufferedWriter writer = IOUtils.getBufferedWriter(tmp.toString())) {
+				for (Id<Link> link : links) {
+					writer.write(link.toString());
+					writer.newLine();
+				}
+			}
+
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
@@ -19,12 +19,14 @@
 
 package org.matsim.legacy.run.drt;
 
+import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Set;
 
 import com.google.inject.Singleton;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
@@ -177,22 +179,31 @@ public final class RunDrtOpenBerlinScenario {
 		return prepareConfig( AdditionalInformation.none, args, customModules ) ;
 	}
 
+	/**
+	 * Same as {@link #addDRTmode(Scenario, String, String, double, Path)}, with the links cached in {@link DrtServiceAreaLinks#defaultCacheDirectory()}.
+	 */
 	public static void addDRTmode(Scenario scenario, String drtNetworkMode, String drtServiceAreaShapeFile, double buffer) {
+		addDRTmode(scenario, drtNetworkMode, drtServiceAreaShapeFile, buffer, DrtServiceAreaLinks.defaultCacheDirectory());
+	}
+
+	/**
+	 * Allow the drt mode on all car links within the buffered service area.
+	 *
+	 * @param cacheDirectory directory to cache the selected links, can be null to disable caching
+	 */
+	public static void addDRTmode(Scenario scenario, String drtNetworkMode, String drtServiceAreaShapeFile, double buffer, Path cacheDirectory) {
 
 		log.info("Adjusting network...");
 
-		BerlinShpUtils shpUtils = new BerlinShpUtils( drtServiceAreaShapeFile );
+		Set<Id<Link>> drtLinks = DrtServiceAreaLinks.get(scenario.getNetwork(), drtServiceAreaShapeFile, buffer, cacheDirectory);
 
 		int counter = 0;
 		int counterInside = 0;
 		int counterOutside = 0;
 		for (Link link : scenario.getNetwork().getLinks().values()) {
-			if (counter % 10000 == 0)
-				log.info("link #" + counter);
 			counter++;
 			if (link.getAllowedModes().contains(TransportMode.car)) {
-				if (shpUtils.isCoordInDrtServiceAreaWithBuffer(link.getFromNode().getCoord(), buffer)
-						|| shpUtils.isCoordInDrtServiceAreaWithBuffer(link.getToNode().getCoord(), buffer)) {
+				if (drtLinks.contains(link.getId())) {
 					Set<String> allowedModes = new HashSet<>(link.getAllowedModes());
 
 					allowedModes.add(drtNetworkMode);
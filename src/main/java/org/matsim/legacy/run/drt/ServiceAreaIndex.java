@@ -0,0 +1,130 @@
+package org.matsim.legacy.run.drt;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.matsim.api.core.v01.Coord;
+
+/**
+ * Index to check whether coordinates are within a set of area geometries.
+ * All polygon parts are prepared and stored in a spatial index. Additionally, the bounding box is divided into grid cells,
+ * which are classified on first use as completely inside, completely outside or at the boundary of the area.
+ * Only coordinates in boundary cells need an exact check.
+ * <p>
+ * The index can be queried from multiple threads. Cells may be classified concurrently more than once, but always with the same result.
+ */
+final class ServiceAreaIndex {
+
+	private static final byte UNKNOWN = 0;
+	private static final byte INSIDE = 1;
+	private static final byte OUTSIDE = 2;
+	private static final byte BOUNDARY = 3;
+
+	/**
+	 * Maximum number of cells in each direction.
+	 */
+	private static final int MAX_CELLS = 1024;
+
+	private final GeometryFactory factory = new GeometryFactory();
+	private final STRtree index = new STRtree();
+	private final Envelope bounds = new Envelope();
+
+	private final double cellSize;
+	private final int cols;
+	private final byte[] cells;
+
+	ServiceAreaIndex(Collection<Geometry> geometries) {
+
+		for (Geometry geometry : geometries) {
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				Geometry part = geometry.getGeometryN(i);
+				if (part.isEmpty())
+					continue;
+
+				index.insert(part.getEnvelopeInternal(), PreparedGeometryFactory.prepare(part));
+				bounds.expandToInclude(part.getEnvelopeInternal());
+			}
+		}
+
+		index.build();
+
+		if (bounds.isNull()) {
+			cellSize = 1;
+			cols = 0;
+			cells = new byte[0];
+		} else {
+			cellSize = Math.max(Math.max(bounds.getWidth(), bounds.getHeight()) / MAX_CELLS, 1e-6);
+			cols = (int) (bounds.getWidth() / cellSize) + 1;
+			int rows = (int) (bounds.getHeight() / cellSize) + 1;
+			cells = new byte[cols * rows];
+		}
+	}
+
+	/**
+	 * Whether the coordinate lies within any of the geometries (not on the boundary).
+	 */
+	boolean contains(Coord coord) {
+
+		double x = coord.getX();
+		double y = coord.getY();
+
+		if (!bounds.contains(x, y))
+			return false;
+
+		int col = (int) ((x - bounds.getMinX()) / cellSize);
+		int row = (int) ((y - bounds.getMinY()) / cellSize);
+		int cell = row * cols + col;
+
+		byte state = cells[cell];
+		if (state == UNKNOWN) {
+			state = classify(col, row);
+			cells[cell] = state;
+		}
+
+		if (state == INSIDE)
+			return true;
+		if (state == OUTSIDE)
+			return false;
+
+		Point p = factory.createPoint(new Coordinate(x, y));
+		for (PreparedGeometry part : query(new Envelope(x, x, y, y))) {
+			if (part.contains(p))
+				return true;
+		}
+
+		return false;
+	}
+
+	private byte classify(int col, int row) {
+
+		double minX = bounds.getMinX() + col * cellSize;
+		double minY = bounds.getMinY() + row * cellSize;
+		Envelope env = new Envelope(minX, minX + cellSize, minY, minY + cellSize);
+		Geometry box = factory.toGeometry(env);
+
+		boolean intersects = false;
+		for (PreparedGeometry part : query(env)) {
+			// cell does not touch the boundary, so all points are within
+			if (part.containsProperly(box))
+				return INSIDE;
+
+			intersects |= part.intersects(box);
+		}
+
+		return intersects ? BOUNDARY : OUTSIDE;
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<PreparedGeometry> query(Envelope env) {
+		return index.query(env);
+	}
+
+}
@@ -0,0 +1,27 @@
+package org.matsim.legacy.run.dynamicShutdown;
+
+/**
+ * Additional metric to be considered by dynamic shutdown. The run is only deemed stable when the slope of all signals
+ * lies within their threshold, in the same way as for the built-in metrics.
+ * Signals are added via {@link DynamicShutdownModule#addConvergenceSignalBinding(com.google.inject.Binder)}.
+ */
+public interface ConvergenceSignal {
+
+    /**
+     * Name of the signal, used in output files.
+     */
+    String getName();
+
+    /**
+     * Threshold for the absolute slope of this signal.
+     */
+    double getThreshold();
+
+    /**
+     * Value of the signal for a finished iteration.
+     *
+     * @return NaN if no value is available for this iteration
+     */
+    double getValue(int iteration);
+
+}
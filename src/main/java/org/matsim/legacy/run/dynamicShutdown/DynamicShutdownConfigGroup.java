@@ -27,6 +27,8 @@ public class DynamicShutdownConfigGroup extends ReflectiveConfigGroup {
     private static final String SCORE_THRESHOLD = "scoreConvergenceThreshold";
     private static final String MODE_THRESHOLD= "modeConvergenceThreshold";
     private static final String MODE_CHOICE_COVERAGE_THRESHOLD= "modeChoiceCoverageConvergenceThreshold";
+    private static final String LINK_VOLUME_POLICY_CHOSEN = "linkVolumePolicyChosen";
+    private static final String LINK_VOLUME_THRESHOLD = "linkVolumeConvergenceThreshold";
 
     private static final String DYNAMIC_SHUTDOWN_MODULE_ACTIVE = "dynamicShutdownModuleActive";
 
@@ -35,6 +37,7 @@ public class DynamicShutdownConfigGroup extends ReflectiveConfigGroup {
     public enum scorePolicyOptions { ON_FULL , ON_EXECUTED_ONLY , OFF }
     public enum modePolicyOptions { ON_FULL , OFF }
     public enum modeCCPolicyOptions { ON_FULL, OFF }
+    public enum linkVolumePolicyOptions { ON, OFF }
 
     public enum slopeWindowOption { FIXED , EXPANDING }
 
@@ -53,6 +56,8 @@ public class DynamicShutdownConfigGroup extends ReflectiveConfigGroup {
     private double modeThreshold = 0.00003;
     private modeCCPolicyOptions modeCCPolicyChosen = modeCCPolicyOptions.ON_FULL;
     private double modechoicecoverageThreshold = 0.0001;
+    private linkVolumePolicyOptions linkVolumePolicyChosen = linkVolumePolicyOptions.OFF;
+    private double linkVolumeThreshold = 0.0001;
 
     public DynamicShutdownConfigGroup() {
         super(GROUP_NAME);
@@ -169,4 +174,20 @@ public class DynamicShutdownConfigGroup extends ReflectiveConfigGroup {
     public void setModechoicecoverageThreshold(final double modechoicecoverageThreshold) {
         this.modechoicecoverageThreshold = modechoicecoverageThreshold;
     }
+    @StringGetter(LINK_VOLUME_POLICY_CHOSEN)
+    public linkVolumePolicyOptions getLinkVolumePolicyChosen() {
+        return linkVolumePolicyChosen;
+    }
+    @StringSetter(LINK_VOLUME_POLICY_CHOSEN)
+    public void setLinkVolumePolicyChosen(final linkVolumePolicyOptions linkVolumePolicyChosen) {
+        this.linkVolumePolicyChosen = linkVolumePolicyChosen;
+    }
+    @StringGetter(LINK_VOLUME_THRESHOLD)
+    public double getLinkVolumeThreshold() {
+        return linkVolumeThreshold;
+    }
+    @StringSetter(LINK_VOLUME_THRESHOLD)
+    public void setLinkVolumeThreshold(final double linkVolumeThreshold) {
+        this.linkVolumeThreshold = linkVolumeThreshold;
+    }
 }
@@ -35,7 +35,7 @@ import java.util.*;
  * 2) informs TerminateDynamically Module of the iteration at which MATSim should shut down.
  *
  * The simulation is deemed stable, when a group of metrics converge; currently, this includes score, mode stats,
- * and mode choice coverage. A metric converges when the slope of the metric consistently lies below a user-specified
+ * mode choice coverage, and any bound {@link ConvergenceSignal}. A metric converges when the slope of the metric consistently lies below a user-specified
  * threshold for number of iterations (default=50).
  *
  * @author jakobrehmann
@@ -64,13 +64,13 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
     private boolean dynamicShutdownInitiated;
     private int dynamicInnovationDisableIteration;
 
-    private static final Map<String, Map<Integer,Double>> slopesScore = new HashMap<>();
-    private static final Map<String, Map<Integer,Double>> slopesMode = new HashMap<>();
-    private static final Map<String, Map<Integer,Double>> slopesModeChoiceCoverage = new HashMap<>();
+    private final Map<String, SlidingWindowSlope> slopesScore = new HashMap<>();
+    private final Map<String, SlidingWindowSlope> slopesMode = new HashMap<>();
+    private final Map<String, SlidingWindowSlope> slopesModeChoiceCoverage = new HashMap<>();
+    private final Map<String, SlidingWindowSlope> slopesSignals = new HashMap<>();
 
-    private static final Map<String, Map<Integer,Integer>> convergenceScore = new HashMap<>();
-    private static final Map<String, Map<Integer,Integer>> convergenceMode = new HashMap<>();
-    private static final Map<String, Map<Integer,Integer>> convergenceModeCC = new HashMap<>();
+    private final Set<ConvergenceSignal> signals;
+    private final Map<String, Map<Integer, Double>> signalHistory = new HashMap<>();
 
     private List<String> activeMetricsScore = new ArrayList<>();
     private List<String> activeMetricsMode = new ArrayList<>();
@@ -81,7 +81,8 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
                                          ModeStatsControlerListener modeStatsControlerListener, StrategyManager strategyManager,
                                          ReplanningConfigGroup strategyConfigGroup, Scenario scenario, OutputDirectoryHierarchy controlerIO,
                                         ScoringConfigGroup scoreConfig,
-                                         ModeChoiceCoverageControlerListener modeChoiceCoverageControlerListener) {
+                                         ModeChoiceCoverageControlerListener modeChoiceCoverageControlerListener,
+                                         Set<ConvergenceSignal> signals) {
 
         this.scenario = scenario;
         this.scoreStats = scoreStats;
@@ -91,6 +92,7 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
         this.modeStatsControlerListener = modeStatsControlerListener ;
         this.outputFileName = controlerIO.getOutputFilename("dynShutdown_");
         this.modeChoiceCoverageControlerListener = modeChoiceCoverageControlerListener;
+        this.signals = signals;
 
         this.cfg = (DynamicShutdownConfigGroup) scenario.getConfig().getModules().get(DynamicShutdownConfigGroup.GROUP_NAME);
 
@@ -132,6 +134,9 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
             for ( String mode : activeMetricsModeCC) {
                 this.slopesOut.write("\tmodeCC-" + mode + "\tconverged");
             }
+            for ( ConvergenceSignal signal : signals) {
+                this.slopesOut.write("\tsignal-" + signal.getName() + "\tconverged");
+            }
             this.slopesOut.write("\tnotes");
             this.slopesOut.flush();
         } catch (IOException e) {
@@ -150,7 +155,7 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
             log.warn("Dynamic shutdown module not active");
         }
 
-        if (activeMetricsScore.isEmpty() && activeMetricsMode.isEmpty() && activeMetricsModeCC.isEmpty()) {
+        if (activeMetricsScore.isEmpty() && activeMetricsMode.isEmpty() && activeMetricsModeCC.isEmpty() && signals.isEmpty()) {
             log.warn("No criteria specified for dynamic shutdown module");
             return;
         }
@@ -174,12 +179,12 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
                 scoreHistoryMod.put(scoreItem.name(), scoreHistory.get(scoreItem));
             }
 
-            bestFitLineGeneric(prevIteration, scoreHistoryMod, slopesScore, activeMetricsScore);
+            updateSlopes(prevIteration, scoreHistoryMod, slopesScore, activeMetricsScore);
             produceDynShutdownGraphs(scoreHistoryMod, slopesScore, metricType, activeMetricsScore, cfg.getScoreThreshold(), iteration);
 
-            scoreConverged = metricTypeConverges(slopesScore, convergenceScore, activeMetricsScore, cfg.getScoreThreshold(), prevIteration);
+            scoreConverged = metricTypeConverges(slopesScore, activeMetricsScore, cfg.getScoreThreshold(), prevIteration);
 
-            writeSlopeAndConvergence(slopesScore, convergenceScore, activeMetricsScore, prevIteration);
+            writeSlopeAndConvergence(slopesScore, activeMetricsScore, prevIteration);
 
         }
 
@@ -189,12 +194,12 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
 			if (true)
 				throw new RuntimeException(" modeStatsControlerListener.getModeHistories() not implemented anymore.  Check if this is still needed.");
             Map<String, Map<Integer, Double>> modeHistories =null;
-            bestFitLineGeneric(prevIteration, modeHistories, slopesMode, activeMetricsMode);
+            updateSlopes(prevIteration, modeHistories, slopesMode, activeMetricsMode);
             produceDynShutdownGraphs(modeHistories, slopesMode, metricType, activeMetricsMode, cfg.getModeThreshold(), iteration);
 
-            modeConverged = metricTypeConverges(slopesMode, convergenceMode, activeMetricsMode, cfg.getModeThreshold(), prevIteration);
+            modeConverged = metricTypeConverges(slopesMode, activeMetricsMode, cfg.getModeThreshold(), prevIteration);
 
-            writeSlopeAndConvergence(slopesMode, convergenceMode, activeMetricsMode, prevIteration);
+            writeSlopeAndConvergence(slopesMode, activeMetricsMode, prevIteration);
         }
 
         boolean modeCCConverged = false;
@@ -203,12 +208,31 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
             String metricType = "modeChoiceCoverage";
             int mCCLimit = 1;
             Map<String, Map<Integer, Double>> mCCHistory = modeChoiceCoverageControlerListener.getModeChoiceCoverageHistory().get(mCCLimit);
-            bestFitLineGeneric(prevIteration, mCCHistory, slopesModeChoiceCoverage, activeMetricsModeCC);
+            updateSlopes(prevIteration, mCCHistory, slopesModeChoiceCoverage, activeMetricsModeCC);
             produceDynShutdownGraphs(mCCHistory,slopesModeChoiceCoverage, metricType, activeMetricsModeCC, cfg.getModeChoiceCoverageThreshold(),iteration);
 
-            modeCCConverged = metricTypeConverges(slopesModeChoiceCoverage, convergenceModeCC, activeMetricsModeCC, cfg.getModeChoiceCoverageThreshold(), prevIteration);
+            modeCCConverged = metricTypeConverges(slopesModeChoiceCoverage, activeMetricsModeCC, cfg.getModeChoiceCoverageThreshold(), prevIteration);
 
-            writeSlopeAndConvergence(slopesModeChoiceCoverage, convergenceModeCC, activeMetricsModeCC, prevIteration);
+            writeSlopeAndConvergence(slopesModeChoiceCoverage, activeMetricsModeCC, prevIteration);
+        }
+
+        boolean signalsConverged = true;
+        for (ConvergenceSignal signal : signals) {
+
+            String name = signal.getName();
+            Map<Integer, Double> history = signalHistory.computeIfAbsent(name, k -> new HashMap<>());
+            double value = signal.getValue(prevIteration);
+            if (!Double.isNaN(value)) {
+                history.put(prevIteration, value);
+            }
+
+            List<String> metric = List.of(name);
+            updateSlopes(prevIteration, signalHistory, slopesSignals, metric);
+            produceDynShutdownGraphs(signalHistory, slopesSignals, "signal", metric, signal.getThreshold(), iteration);
+
+            signalsConverged &= metricTypeConverges(slopesSignals, metric, signal.getThreshold(), prevIteration);
+
+            writeSlopeAndConvergence(slopesSignals, metric, prevIteration);
         }
 
 
@@ -250,18 +274,22 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
             return;
         }
 
+        if (!signalsConverged) {
+            return;
+        }
+
         shutdownInnovation(iteration);
 
     }
 
-    private void writeSlopeAndConvergence(Map<String, Map<Integer, Double>> slopesMap,
-                                          Map<String, Map<Integer, Integer>> convergenceMap,
+    private void writeSlopeAndConvergence(Map<String, SlidingWindowSlope> slopesMap,
                                           List<String> metricsToInclude,int prevIteration) {
         try{
             for (String metric : metricsToInclude) {
-                Double slope = slopesMap.get(metric).get(prevIteration);
+                SlidingWindowSlope slopes = slopesMap.get(metric);
+                double slope = slopes != null ? slopes.getSlope(prevIteration) : Double.NaN;
 
-                int convCnt = convergenceMap.get(metric).get(prevIteration);
+                int convCnt = slopes != null ? slopes.getConvergenceCount() : 0;
                 String convStr;
                 if (convCnt >= cfg.getIterationsInZoneToConverge()) {
                     convStr = "true";
@@ -277,8 +305,7 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
     }
 
 
-    private boolean metricTypeConverges(Map<String, Map<Integer, Double>> slopesMap,
-                                       Map<String, Map<Integer, Integer>> convergenceMap,
+    private boolean metricTypeConverges(Map<String, SlidingWindowSlope> slopesMap,
                                        List<String> metricsToInclude,
                                        double threshold,
                                        int prevIteration) {
@@ -287,30 +314,29 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
             return false;
         }
 
+        boolean converged = true;
         for (String metric : metricsToInclude) {
-            Map<Integer,Integer> convergenceCntPerMetric = convergenceMap.computeIfAbsent(metric,  v -> new HashMap<>());
-            Double slope = slopesMap.get(metric).get(prevIteration);
-            if (slope > -1 * threshold && slope < threshold) {
-                int convergenceCountSoFar = convergenceCntPerMetric.getOrDefault(prevIteration - 1, 0);
-                convergenceCntPerMetric.put(prevIteration, convergenceCountSoFar + 1);
-            } else {
-                convergenceCntPerMetric.put(prevIteration, 0);
+            SlidingWindowSlope slopes = slopesMap.get(metric);
+            if (slopes == null) {
+                converged = false;
+                continue;
             }
-        }
 
-
-        for (String metric : metricsToInclude) {
-            if (convergenceMap.get(metric).get(prevIteration) < cfg.getIterationsInZoneToConverge()) {
-                return false;
+            if (slopes.updateConvergence(prevIteration, threshold) < cfg.getIterationsInZoneToConverge()) {
+                converged = false;
             }
         }
-        return true;
+
+        return converged;
     }
 
-    private void bestFitLineGeneric(int prevIteration,
-                                    Map<String, Map<Integer, Double>> history,
-                                    Map<String, Map<Integer, Double>> slopes,
-                                    List<String> metricsToInclude) {
+    /**
+     * Passes the newest value of each metric to its sliding window, which updates the slope incrementally.
+     */
+    private void updateSlopes(int prevIteration,
+                              Map<String, Map<Integer, Double>> history,
+                              Map<String, SlidingWindowSlope> slopes,
+                              List<String> metricsToInclude) {
 
         for (Map.Entry<String, Map<Integer, Double>> entry : history.entrySet()) {
 
@@ -320,62 +346,13 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
                 continue;
             }
 
-            double slope = computeLineSlope(entry.getValue());
-
-            Map<Integer,Double> slopesForMetric = slopes.computeIfAbsent(metricName, v -> new HashMap<>());
-            slopesForMetric.put(prevIteration,slope);
-        }
-    }
-
-
-    private double computeLineSlope(Map<Integer,Double> inputMap) {
-
-        int currentIter = Collections.max(inputMap.keySet());
-        int startIteration = currentIter - cfg.getMinimumWindowSize() + 1; // fixed window
-        int startIterationExpanding = (int) ((1.0 - cfg.getExpandingWindowPctRetention()) * currentIter + 1); // expanding window
-
-        if (cfg.getSlopeWindowPolicy() == DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING && startIterationExpanding < startIteration) {
-            startIteration = startIterationExpanding;
-        }
-
-        ArrayList<Integer> x = new ArrayList<>();
-        ArrayList<Double> y = new ArrayList<>();
-
-        for (Integer it : inputMap.keySet()) {
-            if (it >= startIteration) {
-                x.add(it);
-                y.add(inputMap.get(it));
-            }
-        }
-
-        if (x.size() != y.size()) {
-            throw new IllegalArgumentException("array lengths are not equal");
-        }
-
-        int n = x.size();
-        double sumX = 0.0;
-        double sumY = 0.0;
-        for (int i = 0; i < n; i++) {
-            sumX  += x.get(i);
-            sumY  += y.get(i);
-        }
-        double xBar = sumX / n;
-        double yBar = sumY / n;
-
-        double xxBar = 0.0;
-        double xyBar = 0.0;
-        for (int i = 0; i < n; i++) {
-            xxBar += (x.get(i) - xBar) * (x.get(i) - xBar);
-            xyBar += (x.get(i) - xBar) * (y.get(i) - yBar);
+            slopes.computeIfAbsent(metricName, v -> new SlidingWindowSlope(cfg)).update(entry.getValue(), prevIteration);
         }
-
-        return xyBar / xxBar;
-
     }
 
 
     private void produceDynShutdownGraphs(Map<String, Map<Integer, Double>> history,
-                                          Map<String, Map<Integer, Double>> slopes,
+                                          Map<String, SlidingWindowSlope> slopes,
                                           String metricType,
                                           List<String> metricsToInclude,
                                           double convergenceThreshold,
@@ -391,7 +368,7 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
                 XYLineChartDualYAxis chart = new XYLineChartDualYAxis("Convergence of " + metricType + "-" + metricName, "iteration", metricType + " : " + metricName, "slope of " + metricName);
 
                 chart.addSeries(metricName, history.get(metricName));
-                chart.addSeries2("slope of " + metricName, slopes.get(metricName));
+                chart.addSeries2("slope of " + metricName, slopes.get(metricName).getSlopes());
 
                 chart.addVerticalRange(-convergenceThreshold, convergenceThreshold);
                 chart.addMatsimLogo();
@@ -1,6 +1,10 @@
 package org.matsim.legacy.run.dynamicShutdown;
 
+import com.google.inject.Binder;
 import com.google.inject.Singleton;
+import com.google.inject.binder.LinkedBindingBuilder;
+import com.google.inject.multibindings.Multibinder;
+import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.TerminationCriterion;
 
@@ -19,6 +23,16 @@ public class DynamicShutdownModule extends AbstractModule {
         this.bind(ModeChoiceCoverageControlerListener.class).in(Singleton.class);
         this.addControlerListenerBinding().to(ModeChoiceCoverageControlerListener.class);
 
+        // Always declare the set, so that it can be injected even if no signals are bound
+        Multibinder.newSetBinder(binder(), ConvergenceSignal.class);
+
+        DynamicShutdownConfigGroup cfg = ConfigUtils.addOrGetModule(getConfig(), DynamicShutdownConfigGroup.class);
+        if (cfg.getLinkVolumePolicyChosen() == DynamicShutdownConfigGroup.linkVolumePolicyOptions.ON) {
+            this.bind(LinkVolumeConvergenceSignal.class).in(Singleton.class);
+            this.addControlerListenerBinding().to(LinkVolumeConvergenceSignal.class);
+            addConvergenceSignalBinding(binder()).to(LinkVolumeConvergenceSignal.class);
+        }
+
         this.bind(DynamicShutdownControlerListenerImpl.class).in(Singleton.class);
         this.addControlerListenerBinding().to(DynamicShutdownControlerListenerImpl.class);
 
@@ -26,4 +40,11 @@ public class DynamicShutdownModule extends AbstractModule {
         this.bind(TerminationCriterion.class).to(TerminateDynamically.class);
 
     }
+
+    /**
+     * Add an additional signal that needs to converge before dynamic shutdown is initiated.
+     */
+    public static LinkedBindingBuilder<ConvergenceSignal> addConvergenceSignalBinding(Binder binder) {
+        return Multibinder.newSetBinder(binder, ConvergenceSignal.class).addBinding();
+    }
 }
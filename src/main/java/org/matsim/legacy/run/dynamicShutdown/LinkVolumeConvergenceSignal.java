@@ -0,0 +1,72 @@
+package org.matsim.legacy.run.dynamicShutdown;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import org.matsim.analysis.VolumesAnalyzer;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+
+import javax.inject.Inject;
+
+/**
+ * Convergence of the link volumes, measured as vehicle kilometers traveled on the network.
+ * The value is relative to the first observed iteration, so that the threshold does not depend on the sample size.
+ */
+public class LinkVolumeConvergenceSignal implements ConvergenceSignal, IterationEndsListener {
+
+    private final Network network;
+    private final VolumesAnalyzer volumes;
+    private final DynamicShutdownConfigGroup cfg;
+
+    private final Int2DoubleMap values = new Int2DoubleOpenHashMap();
+    private double reference = Double.NaN;
+
+    @Inject
+    LinkVolumeConvergenceSignal(Network network, VolumesAnalyzer volumes, Config config) {
+        this.network = network;
+        this.volumes = volumes;
+        this.cfg = ConfigUtils.addOrGetModule(config, DynamicShutdownConfigGroup.class);
+        this.values.defaultReturnValue(Double.NaN);
+    }
+
+    @Override
+    public String getName() {
+        return "linkVolume";
+    }
+
+    @Override
+    public double getThreshold() {
+        return cfg.getLinkVolumeThreshold();
+    }
+
+    @Override
+    public double getValue(int iteration) {
+        return values.get(iteration);
+    }
+
+    @Override
+    public void notifyIterationEnds(IterationEndsEvent event) {
+
+        double vkt = 0;
+        for (Link link : network.getLinks().values()) {
+            int[] v = volumes.getVolumesForLink(link.getId());
+            if (v == null)
+                continue;
+
+            int total = 0;
+            for (int h : v) {
+                total += h;
+            }
+            vkt += total * link.getLength() / 1000;
+        }
+
+        if (Double.isNaN(reference) && vkt > 0)
+            reference = vkt;
+
+        values.put(event.getIteration(), Double.isNaN(reference) ? Double.NaN : vkt / reference);
+    }
+}
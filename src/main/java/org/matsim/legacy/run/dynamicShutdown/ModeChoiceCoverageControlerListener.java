@@ -4,7 +4,6 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.api.core.v01.population.Plan;
 import org.matsim.api.core.v01.population.Population;
 import org.matsim.core.config.groups.ControllerConfigGroup;
 import org.matsim.core.config.groups.ScoringConfigGroup;
@@ -18,7 +17,6 @@ import org.matsim.core.controler.listener.StartupListener;
 import org.matsim.core.router.AnalysisMainModeIdentifier;
 import org.matsim.core.router.MainModeIdentifier;
 import org.matsim.core.router.TripStructureUtils;
-import org.matsim.core.router.TripStructureUtils.Trip;
 import org.matsim.core.utils.charts.XYLineChart;
 import org.matsim.core.utils.io.IOUtils;
 
@@ -27,6 +25,8 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 /**
  * Calculates mode choice coverage at the end of each iteration, based on the main mode identifier of a trip chain.
@@ -57,8 +57,27 @@ public class ModeChoiceCoverageControlerListener implements StartupListener, Ite
 
     private final Map<Integer, Map<String, Map<Integer, Double>>> modeCCHistory = new HashMap<>();
     //            Map<Iter   , Map<Mode  , Map<Limit  , Pct   >>>
-    private final Map<Id<Person>, Map<Integer, Map<String, Integer>>> modesUsedPerPersonTrip = new LinkedHashMap<>();
-    //            Map<Person    , Map<Trip # , Map<Mode  , Count  >>>
+
+    /**
+     * Counts how often each trip of a person used a mode, see {@link PersonTrips}.
+     */
+    private final Map<Id<Person>, PersonTrips> modesUsedPerPersonTrip = new LinkedHashMap<>();
+
+    /**
+     * Interned modes, the index is used as mode id.
+     */
+    private final List<String> modeNames = new ArrayList<>();
+    private final Map<String, Integer> modeIds = new ConcurrentHashMap<>();
+
+    /**
+     * Number of person trips that have used a mode at least the number of times of each limit. Indexed by limit and mode id.
+     */
+    private long[][] coverageCounts = new long[limits.length][0];
+
+    /**
+     * Number of person trips observed so far.
+     */
+    private long totalPersonTripCount = 0;
     private static final String FILENAME_MODESTATS = "modeChoiceCoverage";
 
     // Keep all modes encountered so far in a sorted set to ensure output is written for modes sorted by mode.
@@ -102,32 +121,24 @@ public class ModeChoiceCoverageControlerListener implements StartupListener, Ite
 
 
         /*
-         *	Looks through modesUsedPerPersonTrip at each person-trip. How many of those person trips have used each mode more than the
-         *  predefined limits.
+         *	How many person trips have used each mode more than the predefined limits. These counts are updated incrementally.
          */
-        int totalPersonTripCount = 0;
+        if (totalPersonTripCount == 0) {
+            log.warn("No trips found, mode choice coverage can not be calculated.");
+            return;
+        }
+
         Map<Integer, Map<String, Double>> modeCountCurrentIteration = new TreeMap<>();
         //Map<Limit, Map<Mode  , TotalTripCount >>
 
-        for (Map<Integer, Map<String, Integer>> mapForPerson : modesUsedPerPersonTrip.values()) {
-            //Map<Trip # , Map<Mode  , Count  >>
-            for (Map<String, Integer> mapForPersonTrip : mapForPerson.values()) {
-                //Map<Mode  , Count >
-                totalPersonTripCount++;
-                for (String mode : mapForPersonTrip.keySet()) {
-                    Integer realCount = mapForPersonTrip.get(mode);
-                    for (Integer limit : limits) {
-                        Map<String, Double> modeCountMap = modeCountCurrentIteration.computeIfAbsent(limit, k -> new TreeMap<>());
-                        Double modeCount = modeCountMap.computeIfAbsent(mode, k -> 0.);
-                        if (realCount >= limit) {
-                            modeCount++;
-                        }
-                        modeCountMap.put(mode, modeCount);
-                        modeCountCurrentIteration.put(limit, modeCountMap);
-                    }
-                }
+        for (int l = 0; l < limits.length; l++) {
+            Map<String, Double> modeCountMap = new TreeMap<>();
+            for (int m = 0; m < modeNames.size(); m++) {
+                modeCountMap.put(modeNames.get(m), (double) coverageCounts[l][m]);
             }
+            modeCountCurrentIteration.put(limits[l], modeCountMap);
         }
+
         // Calculates mcc share for each mode in current iteration, and updates modeCCHistory accordingly
         for (Integer limit : limits) {
             Map<String, Double> modeCnt = modeCountCurrentIteration.get(limit);
@@ -137,7 +148,7 @@ public class ModeChoiceCoverageControlerListener implements StartupListener, Ite
                 Double cnt = modeCnt.get(mode);
                 double share = 0.;
                 if (cnt != null) {
-                    share = cnt / totalPersonTripCount;
+                    share = cnt / (double) totalPersonTripCount;
                 }
 
                 log.info("-- mode choice coverage (" + limit + "x) of mode " + mode + " = " + share);
@@ -192,26 +203,59 @@ public class ModeChoiceCoverageControlerListener implements StartupListener, Ite
     }
 
     private void updateModesUsedPerPerson() {
-        for (Person person : this.population.getPersons().values()) {
-
-            Map<Integer, Map<String, Integer>> mapForPerson = modesUsedPerPersonTrip.computeIfAbsent(person.getId(), v -> new LinkedHashMap<>());
 
-            Plan plan = person.getSelectedPlan();
-            Integer tripNumber = 0;
-            for (Trip trip : TripStructureUtils.getTrips(plan)) {
-
-                tripNumber++;
-                String mode = this.mainModeIdentifier.identifyMainMode(trip.getTripElements());
+        List<PersonTrips> persons = new ArrayList<>(population.getPersons().size());
+        for (Person person : this.population.getPersons().values()) {
+            persons.add(modesUsedPerPersonTrip.computeIfAbsent(person.getId(), k -> new PersonTrips(person)));
+        }
 
-                Map<String, Integer> mapForPersonTrip = mapForPerson.computeIfAbsent(tripNumber, v -> new HashMap<>());
+        // Identify the main mode of all trips, the modes are interned in the process
+        int[][] tripModes = persons.parallelStream()
+                .map(p -> TripStructureUtils.getTrips(p.person.getSelectedPlan()).stream()
+                        .mapToInt(trip -> modeId(this.mainModeIdentifier.identifyMainMode(trip.getTripElements())))
+                        .toArray())
+                .toArray(int[][]::new);
 
-                Integer modeCount = mapForPersonTrip.getOrDefault(mode, 0);
-                mapForPersonTrip.put(mode, modeCount + 1);
+        synchronized (modeNames) {
+            for (int l = 0; l < limits.length; l++) {
+                coverageCounts[l] = Arrays.copyOf(coverageCounts[l], modeNames.size());
+            }
+        }
 
+        // Index 0 holds the number of new person trips, followed by the increments per limit and mode
+        int numModes = modeNames.size();
+        long[] delta = IntStream.range(0, persons.size()).parallel()
+                .collect(() -> new long[1 + limits.length * numModes],
+                        (d, i) -> persons.get(i).update(tripModes[i], limits, d),
+                        (a, b) -> {
+                            for (int i = 0; i < a.length; i++)
+                                a[i] += b[i];
+                        });
+
+        totalPersonTripCount += delta[0];
+        for (int l = 0; l < limits.length; l++) {
+            for (int m = 0; m < numModes; m++) {
+                coverageCounts[l][m] += delta[1 + l * numModes + m];
             }
         }
     }
 
+    /**
+     * Returns the id of a mode, unknown modes are added.
+     */
+    private int modeId(String mode) {
+        Integer id = modeIds.get(mode);
+        if (id != null)
+            return id;
+
+        synchronized (modeNames) {
+            return modeIds.computeIfAbsent(mode, k -> {
+                modeNames.add(k);
+                return modeNames.size() - 1;
+            });
+        }
+    }
+
     private void produceGraphs() {
         for (Integer limit : limits) {
             XYLineChart chart = new XYLineChart("Mode Choice Coverage (Mode Used >= " + limit + "x per trip)", "iteration", "mode choice coverage");
@@ -240,4 +284,54 @@ public class ModeChoiceCoverageControlerListener implements StartupListener, Ite
     public final Map<Integer, Map<String, Map<Integer, Double>>> getModeChoiceCoverageHistory() {
         return Collections.unmodifiableMap(modeCCHistory);
     }
+
+    /**
+     * Mode usage counts of the trips of one person. Counts are stored per mode id, with one byte for each trip.
+     * Counts saturate at {@link Byte#MAX_VALUE}, which is more than any limit.
+     */
+    private static final class PersonTrips {
+
+        private final Person person;
+        private byte[][] counts = new byte[0][];
+        private int trips;
+
+        private PersonTrips(Person person) {
+            this.person = person;
+        }
+
+        /**
+         * Count the modes of the current trips and add the changes of the coverage counts to {@code delta}.
+         */
+        private void update(int[] modes, Integer[] limits, long[] delta) {
+
+            int numModes = (delta.length - 1) / limits.length;
+
+            if (modes.length > trips) {
+                delta[0] += modes.length - trips;
+                trips = modes.length;
+                for (int m = 0; m < counts.length; m++) {
+                    if (counts[m] != null)
+                        counts[m] = Arrays.copyOf(counts[m], trips);
+                }
+            }
+
+            for (int t = 0; t < modes.length; t++) {
+                int m = modes[t];
+                if (m >= counts.length)
+                    counts = Arrays.copyOf(counts, m + 1);
+                if (counts[m] == null)
+                    counts[m] = new byte[trips];
+
+                int c = counts[m][t];
+                if (c == Byte.MAX_VALUE)
+                    continue;
+
+                counts[m][t] = (byte) ++c;
+                for (int l = 0; l < limits.length; l++) {
+                    if (c == limits[l])
+                        delta[1 + l * numModes + m]++;
+                }
+            }
+        }
+    }
 }
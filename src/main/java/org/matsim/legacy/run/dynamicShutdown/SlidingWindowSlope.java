@@ -0,0 +1,191 @@
+package org.matsim.legacy.run.dynamicShutdown;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleAVLTreeMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleSortedMap;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Online linear regression over a sliding window of iterations for one metric.
+ * Values are kept in a ring buffer together with running sums, so adding a value and computing the slope is O(1).
+ * The window is determined the same way as before, either fixed or expanding, see {@link DynamicShutdownConfigGroup.slopeWindowOption}.
+ */
+final class SlidingWindowSlope {
+
+    private final DynamicShutdownConfigGroup cfg;
+
+    private int[] xs = new int[64];
+    private double[] ys = new double[64];
+    private int head;
+    private int size;
+
+    /**
+     * Iterations are shifted by this origin to keep the running sums small.
+     */
+    private int origin = Integer.MIN_VALUE;
+    private double sumX;
+    private double sumY;
+    private double sumXX;
+    private double sumXY;
+
+    /**
+     * Number of evictions since the sums were last recomputed.
+     */
+    private int evictions;
+
+    private int lastIteration = Integer.MIN_VALUE;
+
+    private final Int2DoubleSortedMap slopes = new Int2DoubleAVLTreeMap();
+
+    private int convergenceCount;
+    private int lastConvergenceIteration = Integer.MIN_VALUE;
+
+    SlidingWindowSlope(DynamicShutdownConfigGroup cfg) {
+        this.cfg = cfg;
+    }
+
+    /**
+     * Add the value of the given iteration from the history and compute the slope for it.
+     * When called for the first time, all previous values of the history are added as well.
+     */
+    void update(Map<Integer, Double> history, int iteration) {
+
+        if (lastIteration == Integer.MIN_VALUE) {
+            new TreeMap<>(history).headMap(iteration, true).forEach(this::add);
+        } else if (iteration > lastIteration && history.get(iteration) != null) {
+            add(iteration, history.get(iteration));
+        }
+
+        if (size == 0)
+            return;
+
+        evict(windowStart(lastIteration));
+        slopes.put(iteration, slope());
+    }
+
+    private void add(int iteration, double value) {
+
+        if (size == xs.length) {
+            int[] newXs = new int[xs.length * 2];
+            double[] newYs = new double[ys.length * 2];
+            for (int i = 0; i < size; i++) {
+                newXs[i] = xs[(head + i) % xs.length];
+                newYs[i] = ys[(head + i) % ys.length];
+            }
+            xs = newXs;
+            ys = newYs;
+            head = 0;
+        }
+
+        if (origin == Integer.MIN_VALUE)
+            origin = iteration;
+
+        int idx = (head + size) % xs.length;
+        xs[idx] = iteration;
+        ys[idx] = value;
+        size++;
+
+        double x = iteration - origin;
+        sumX += x;
+        sumY += value;
+        sumXX += x * x;
+        sumXY += x * value;
+
+        lastIteration = iteration;
+    }
+
+    /**
+     * First iteration within the window, same as the original computation on the full history.
+     */
+    private int windowStart(int currentIter) {
+
+        int startIteration = currentIter - cfg.getMinimumWindowSize() + 1; // fixed window
+        int startIterationExpanding = (int) ((1.0 - cfg.getExpandingWindowPctRetention()) * currentIter + 1); // expanding window
+
+        if (cfg.getSlopeWindowPolicy() == DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING && startIterationExpanding < startIteration) {
+            startIteration = startIterationExpanding;
+        }
+
+        return startIteration;
+    }
+
+    /**
+     * Remove values before the start of the window. The window start never decreases, so values are only removed at the head.
+     */
+    private void evict(int start) {
+
+        while (size > 0 && xs[head] < start) {
+            double x = xs[head] - origin;
+            double y = ys[head];
+            sumX -= x;
+            sumY -= y;
+            sumXX -= x * x;
+            sumXY -= x * y;
+
+            head = (head + 1) % xs.length;
+            size--;
+            evictions++;
+        }
+
+        // Recompute the sums from time to time, to avoid accumulating rounding errors
+        if (evictions >= xs.length) {
+            sumX = sumY = sumXX = sumXY = 0;
+            for (int i = 0; i < size; i++) {
+                double x = xs[(head + i) % xs.length] - origin;
+                double y = ys[(head + i) % ys.length];
+                sumX += x;
+                sumY += y;
+                sumXX += x * x;
+                sumXY += x * y;
+            }
+            evictions = 0;
+        }
+    }
+
+    private double slope() {
+        double xBar = sumX / size;
+        double yBar = sumY / size;
+
+        double xxBar = sumXX - size * xBar * xBar;
+        double xyBar = sumXY - size * xBar * yBar;
+
+        return xyBar / xxBar;
+    }
+
+    /**
+     * Update the number of consecutive iterations in which the slope lies within the threshold.
+     *
+     * @return the updated count
+     */
+    int updateConvergence(int iteration, double threshold) {
+
+        double slope = getSlope(iteration);
+        if (slope > -1 * threshold && slope < threshold) {
+            convergenceCount = lastConvergenceIteration == iteration - 1 ? convergenceCount + 1 : 1;
+        } else {
+            convergenceCount = 0;
+        }
+
+        lastConvergenceIteration = iteration;
+        return convergenceCount;
+    }
+
+    int getConvergenceCount() {
+        return convergenceCount;
+    }
+
+    /**
+     * Slope computed for an iteration, NaN if not available.
+     */
+    double getSlope(int iteration) {
+        return slopes.containsKey(iteration) ? slopes.get(iteration) : Double.NaN;
+    }
+
+    /**
+     * All computed slopes by iteration.
+     */
+    Map<Integer, Double> getSlopes() {
+        return slopes;
+    }
+}
@@ -21,15 +21,15 @@
 
 package org.matsim.legacy.run.ptdisturbances;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
-import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.IdMap;
 import org.matsim.api.core.v01.events.ActivityEndEvent;
 import org.matsim.api.core.v01.events.ActivityStartEvent;
-import org.matsim.api.core.v01.events.Event;
 import org.matsim.api.core.v01.events.PersonEntersVehicleEvent;
 import org.matsim.api.core.v01.events.handler.ActivityEndEventHandler;
 import org.matsim.api.core.v01.events.handler.ActivityStartEventHandler;
@@ -38,40 +38,62 @@ import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.router.StageActivityTypeIdentifier;
 
 /**
+* Collects pt trips while reading the events and writes each trip as soon as it ends.
+* Only a trip counter is kept per person, details are only stored while a trip is in progress.
+*
 * @author smueller
 */
 
 public class PtAnalysisEventHandler implements ActivityEndEventHandler, ActivityStartEventHandler, PersonEntersVehicleEventHandler {
 
-	private static Map<Id<Person>, List<Event>> personMap = new HashMap<>();
+	public static final String HEADER = "PersonId;TripIndex;PersonId+TripId;LegStartTime;LegEndTime;TravelTime;NextActType;LineChanges;Line1;Line2;Line3;Line4;Line5;Line6;Line7;Line8";
+
+	/**
+	 * Number of trips started by each person.
+	 */
+	private final IdMap<Person, Integer> tripCounts = new IdMap<>(Person.class);
+
+	/**
+	 * Trips that are currently in progress.
+	 */
+	private final IdMap<Person, Trip> openTrips = new IdMap<>(Person.class);
+	private final Writer writer;
+	private final double startTime;
+	private final double endTime;
+
+	private int written;
+
+	/**
+	 * Write pt trips starting within the given time window.
+	 */
+	public PtAnalysisEventHandler(Writer writer, double startTime, double endTime) {
+		this.writer = writer;
+		this.startTime = startTime;
+		this.endTime = endTime;
+	}
 
 	@Override
 	public void handleEvent(ActivityEndEvent event) {
 
 		if (StageActivityTypeIdentifier.isStageActivity(event.getActType()) == false) {
-			if (personMap.containsKey(event.getPersonId())) {
-				List<Event> eventList = personMap.get(event.getPersonId());
-				eventList.add(event);
-			}
-
-			else {
-				List<Event> eventList = new ArrayList<>();
-				eventList.add(event);
-				personMap.putIfAbsent(event.getPersonId(), eventList );
-			}
+			int index = tripCounts.merge(event.getPersonId(), 1, Integer::sum);
+			openTrips.put(event.getPersonId(), new Trip(index, event.getTime()));
 		}
 
-
 	}
 
 	@Override
 	public void handleEvent(ActivityStartEvent event) {
 
 		if (StageActivityTypeIdentifier.isStageActivity(event.getActType()) == false) {
-			List<Event> eventList = personMap.get(event.getPersonId());
-			eventList.add(event);
-		}
+			Trip trip = openTrips.remove(event.getPersonId());
+			if (trip == null)
+				return;
 
+			if (trip.isPt && trip.startTime > startTime && trip.startTime < endTime) {
+				write(event, trip);
+			}
+		}
 
 	}
 
@@ -79,16 +101,69 @@ public class PtAnalysisEventHandler implements ActivityEndEventHandler, Activity
 	public void handleEvent(PersonEntersVehicleEvent event) {
 
 		if (event.getPersonId().toString().startsWith("pt_pt") == false) {
-			List<Event> eventList = personMap.get(event.getPersonId());
-			eventList.add(event);
+			Trip trip = openTrips.get(event.getPersonId());
+			if (trip == null)
+				return;
+
+			String vehicle = event.getVehicleId().toString();
+			trip.vehicles.add(vehicle);
+			if (vehicle.startsWith("pt")) {
+				trip.isPt = true;
+			}
 		}
 
+	}
+
+	private void write(ActivityStartEvent event, Trip trip) {
+
+		String personId = event.getPersonId().toString();
+		double legEndTime = event.getTime();
+
+		StringBuilder b = new StringBuilder();
+		b.append(personId).append(';')
+			.append(trip.index).append(';')
+			.append(personId).append('+').append(trip.index).append(';')
+			.append(trip.startTime).append(';')
+			.append(legEndTime).append(';')
+			.append(legEndTime - trip.startTime).append(';')
+			.append(event.getActType()).append(';')
+			.append(trip.vehicles.size() - 1).append(';');
 
+		for (String vehicle : trip.vehicles) {
+			int idx = vehicle.indexOf("---");
+			b.append(idx >= 0 ? vehicle.substring(0, idx) : vehicle).append(';');
+		}
+
+		b.append(System.lineSeparator());
+
+		try {
+			writer.write(b.toString());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		written++;
 	}
 
-	public static Map<Id<Person>, List<Event>> getPersonMap(){
-		return personMap;
+	/**
+	 * Number of trips written so far.
+	 */
+	public int getNumberOfTrips() {
+		return written;
 	}
 
-}
+	private static final class Trip {
 
+		private final List<String> vehicles = new ArrayList<>();
+		private final int index;
+		private final double startTime;
+		private boolean isPt;
+
+		private Trip(int index, double startTime) {
+			this.index = index;
+			this.startTime = startTime;
+		}
+
+	}
+
+}
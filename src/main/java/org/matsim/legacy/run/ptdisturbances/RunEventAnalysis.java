@@ -22,22 +22,14 @@
 package org.matsim.legacy.run.ptdisturbances;
 
 import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.events.ActivityStartEvent;
-import org.matsim.api.core.v01.events.Event;
-import org.matsim.api.core.v01.events.PersonEntersVehicleEvent;
-import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.events.EventsUtils;
 import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.core.utils.io.IOUtils;
 
 /**
 * @author smueller
@@ -49,102 +41,33 @@ public class RunEventAnalysis {
 
 	public static void main(String[] args) throws IOException {
 
+		writeTravelTimesToCSV("/Volumes/smueller_ssd/Replanning0800neu/berlin-drt-v5.5-10pct.output_events.xml", "Events.csv");
 
-		Map<Id<Person>, List<Event>> personMapBase = handleEvents("/Volumes/smueller_ssd/Replanning0800neu/berlin-drt-v5.5-10pct.output_events.xml");
+	}
 
-		writeTravelTimesToCSV(personMapBase);
+	/**
+	 * Stream the events and write all pt trips starting between 6 and 10 am.
+	 */
+	private static void writeTravelTimesToCSV(String eventsFile, String outputFile) throws IOException {
 
-	}
+		try (BufferedWriter bw = IOUtils.getBufferedWriter(outputFile)) {
+			bw.write(PtAnalysisEventHandler.HEADER);
+			bw.newLine();
 
-	private static Map<Id<Person>, List<Event>> handleEvents(String eventsFile) {
-		EventsManager events = EventsUtils.createEventsManager();
-		PtAnalysisEventHandler ptAnalysisEventHandler = new PtAnalysisEventHandler();
-		events.addHandler(ptAnalysisEventHandler);
-		MatsimEventsReader reader = new MatsimEventsReader(events);
-		reader.readFile(eventsFile);
-		Map<Id<Person>, List<Event>> personMap = PtAnalysisEventHandler.getPersonMap();
-		return personMap;
-	}
+			PtAnalysisEventHandler ptAnalysisEventHandler = new PtAnalysisEventHandler(bw, 6. * 3600, 10. * 3600);
 
-	private static void writeTravelTimesToCSV(Map<Id<Person>, List<Event>> personMap) throws IOException {
-
-		BufferedWriter bw;
-		FileWriter fw = new FileWriter("Events.csv");
-		bw = new BufferedWriter(fw);
-		bw.write("PersonId;TripIndex;PersonId+TripId;LegStartTime;LegEndTime;TravelTime;NextActType;LineChanges;Line1;Line2;Line3;Line4;Line5;Line6;Line7;Line8");
-		bw.newLine();
-		for (List<Event> eventList : personMap.values()) {
-			double legStartTime = 0;
-			double legEndTime = 0;
-			boolean isPtTrip = false;
-			int tripId = 0;
-			List<String> vehicles = new ArrayList<>();
-
-			for (int ii = 0; ii < eventList.size(); ii++) {
-				Event event = eventList.get(ii);
-
-				if (event.getEventType().equals("actend")) {
-					legStartTime = event.getTime();
-					tripId++;
-				}
-
-				if (event.getEventType().equals("PersonEntersVehicle")) {
-					String vehicle = ((PersonEntersVehicleEvent) event).getVehicleId().toString();
-					vehicles.add(vehicle);
-					if (vehicle.startsWith("pt")) {
-						isPtTrip = true;
-					}
-				}
-
-				if (event.getEventType().equals("actstart")) {
-
-					legEndTime = event.getTime();
-
-					if(isPtTrip && legStartTime > 6. * 3600 && legStartTime < 10. * 3600) {
-//						if(isPtTrip) {
-
-						bw.write(((ActivityStartEvent) event).getPersonId().toString());
-						bw.write(";");
-						bw.write(String.valueOf(tripId));
-						bw.write(";");
-						bw.write(((ActivityStartEvent) event).getPersonId().toString()+"+"+String.valueOf(tripId));
-						bw.write(";");
-						bw.write(String.valueOf(legStartTime));
-						bw.write(";");
-						bw.write(String.valueOf(legEndTime));
-						bw.write(";");
-						bw.write(String.valueOf(legEndTime-legStartTime));
-						bw.write(";");
-						bw.write(((ActivityStartEvent) event).getActType().toString());
-						bw.write(";");
-						bw.write(String.valueOf(vehicles.size()-1));
-						bw.write(";");
-						if (vehicles != null) {
-							for (int jj = 0; jj < vehicles.size(); jj++) {
-								String[] lines = vehicles.get(jj).split("---");
-								bw.write(lines[0]);
-								bw.write(";");
-							}
-						}
-
-						bw.newLine();
-					}
-
-					legStartTime = 0;
-					legEndTime= 0;
-					vehicles.clear();
-					isPtTrip = false;
-				}
-			}
-
-			bw.flush();
-		}
+			// Handlers run on a separate thread, while the parser reads the file
+			EventsManager events = EventsUtils.createParallelEventsManager();
+			events.addHandler(ptAnalysisEventHandler);
 
-		bw.close();
-		log.info("done writing events to csv");
+			events.initProcessing();
+			new MatsimEventsReader(events).readFile(eventsFile);
+			events.finishProcessing();
+
+			log.info("done writing {} trips to csv", ptAnalysisEventHandler.getNumberOfTrips());
+		}
 
 	}
 
 
 }
-
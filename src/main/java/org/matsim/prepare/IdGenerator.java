@@ -0,0 +1,99 @@
+package org.matsim.prepare;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates unique, random looking hex ids without checking for existing ids.
+ * A counter is mapped through a keyed permutation (a Feistel network) of the id space, so no id can occur twice.
+ * The sequence of ids depends only on the seed and is safe to use from multiple threads.
+ */
+public final class IdGenerator {
+
+	private static final int ROUNDS = 4;
+
+	private final String prefix;
+	private final int bits;
+	private final int halfBits;
+	private final long halfMask;
+	private final long[] keys = new long[ROUNDS];
+	private final AtomicLong counter = new AtomicLong();
+
+	/**
+	 * Create a new generator.
+	 *
+	 * @param prefix prefix of each id
+	 * @param bits   size of the id space in bits, must be even and at most 62. Each id has bits / 4 hex digits.
+	 * @param seed   seed for the permutation
+	 */
+	public IdGenerator(String prefix, int bits, long seed) {
+
+		if (bits <= 0 || bits > 62 || bits % 2 != 0)
+			throw new IllegalArgumentException("Number of bits must be even and between 2 and 62: " + bits);
+
+		this.prefix = prefix;
+		this.bits = bits;
+		this.halfBits = bits / 2;
+		this.halfMask = (1L << halfBits) - 1;
+
+		SplittableRandom rnd = new SplittableRandom(seed);
+		for (int i = 0; i < ROUNDS; i++) {
+			keys[i] = rnd.nextLong();
+		}
+	}
+
+	/**
+	 * Return the next id.
+	 *
+	 * @throws IllegalStateException if all ids have been used
+	 */
+	public String next() {
+		return get(counter.getAndIncrement());
+	}
+
+	/**
+	 * Return the id at a specific position of the sequence. Different indices always give different ids.
+	 */
+	public String get(long index) {
+
+		if (index < 0 || index >= (1L << bits))
+			throw new IllegalStateException("Id space of %d bits is exhausted".formatted(bits));
+
+		long value = permute(index);
+
+		StringBuilder b = new StringBuilder(prefix);
+		String hex = Long.toHexString(value);
+		for (int i = hex.length(); i < (bits + 3) / 4; i++) {
+			b.append('0');
+		}
+
+		return b.append(hex).toString();
+	}
+
+	/**
+	 * Keyed bijection on the id space.
+	 */
+	long permute(long value) {
+
+		long left = value >>> halfBits;
+		long right = value & halfMask;
+
+		for (long key : keys) {
+			long tmp = right;
+			right = left ^ (round(right, key) & halfMask);
+			left = tmp;
+		}
+
+		return (left << halfBits) | right;
+	}
+
+	/**
+	 * Round function, mixes the input with the key (same finalizer as used by {@link SplittableRandom}).
+	 */
+	private static long round(long value, long key) {
+		long z = value + key;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
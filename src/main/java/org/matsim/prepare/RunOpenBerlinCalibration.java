@@ -6,7 +6,6 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Scenario;
-import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.population.*;
 import org.matsim.application.MATSimAppCommand;
@@ -32,18 +31,14 @@ import org.matsim.core.config.groups.VspExperimentalConfigGroup;
 import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.controler.OutputDirectoryHierarchy;
-import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.algorithms.ParallelPersonAlgorithmUtils;
 import org.matsim.core.replanning.choosers.ForceInnovationStrategyChooser;
 import org.matsim.core.replanning.choosers.StrategyChooser;
 import org.matsim.core.replanning.strategies.DefaultPlanStrategiesModule;
-import org.matsim.core.router.DefaultAnalysisMainModeIdentifier;
-import org.matsim.core.router.MainModeIdentifier;
-import org.matsim.core.router.TripStructureUtils;
 import org.matsim.core.scoring.ScoringFunction;
 import org.matsim.core.scoring.ScoringFunctionFactory;
 import org.matsim.core.scoring.SumScoringFunction;
 import org.matsim.core.scoring.functions.*;
-import org.matsim.core.utils.geometry.CoordUtils;
 import org.matsim.prepare.opt.ExtractPlanIndexFromType;
 import org.matsim.prepare.population.AssignReferencePopulation;
 import org.matsim.prepare.choices.ComputePlanChoices;
@@ -72,7 +67,6 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.file.Path;
 import java.util.List;
-import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -316,60 +310,11 @@ public class RunOpenBerlinCalibration extends MATSimApplication {
 
 			log.info("Converting all agents to car plans.");
 
-			MainModeIdentifier mmi = new DefaultAnalysisMainModeIdentifier();
-
-			for (Person person : scenario.getPopulation().getPersons().values()) {
-				for (Plan plan : person.getPlans()) {
-					final List<PlanElement> planElements = plan.getPlanElements();
-					final List<TripStructureUtils.Trip> trips = TripStructureUtils.getTrips(plan);
-
-					for (TripStructureUtils.Trip trip : trips) {
-
-						final List<PlanElement> fullTrip =
-							planElements.subList(
-								planElements.indexOf(trip.getOriginActivity()) + 1,
-								planElements.indexOf(trip.getDestinationActivity()));
-
-						String mode = mmi.identifyMainMode(fullTrip);
-
-						// Already car, nothing to do
-						if (Objects.equals(mode, TransportMode.car) ||
-							Objects.equals(mode, TransportMode.truck) ||
-							Objects.equals(mode, "freight"))
-							continue;
-
-						double dist = CoordUtils.calcEuclideanDistance(getCoord(scenario, trip.getOriginActivity()), getCoord(scenario, trip.getDestinationActivity()));
-
-						// short bike and walk trips are not changed
-						if (dist <= 350 && (Objects.equals(mode, TransportMode.walk) || Objects.equals(mode, TransportMode.bike)))
-							continue;
-
-						// rest of the trips is set to walk if below threshold, car otherwise
-						String desiredMode = dist <= 350 ? TransportMode.walk : TransportMode.car;
-
-						if (!Objects.equals(mode, desiredMode)) {
-							fullTrip.clear();
-							Leg leg = PopulationUtils.createLeg(desiredMode);
-							TripStructureUtils.setRoutingMode(leg, desiredMode);
-							fullTrip.add(leg);
-						}
-					}
-				}
-			}
+			ParallelPersonAlgorithmUtils.run(scenario.getPopulation(), scenario.getConfig().global().getNumberOfThreads(),
+				new ConvertToCarPlans(scenario));
 		}
 	}
 
-	private static Coord getCoord(Scenario scenario, Activity act) {
-
-		if (act.getCoord() != null)
-			return act.getCoord();
-
-		if (act.getFacilityId() != null)
-			return scenario.getActivityFacilities().getFacilities().get(act.getFacilityId()).getCoord();
-
-		return scenario.getNetwork().getLinks().get(act.getLinkId()).getCoord();
-	}
-
 	@Override
 	protected void prepareControler(Controler controler) {
 
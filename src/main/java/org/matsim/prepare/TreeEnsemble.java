@@ -0,0 +1,450 @@
+package org.matsim.prepare;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Evaluates gradient-boosted tree ensembles stored in flat arrays.
+ * <p>
+ * Models are converted from the generated java code of the python model training (see {@link #convert(Path, Path)}),
+ * and stored as <code>.trees</code> resource next to the generated class. Predictions are identical to the generated code.
+ * In contrast to the generated code, whole batches of rows can be evaluated tree by tree, which is considerably faster for large inputs.
+ */
+public final class TreeEnsemble {
+
+	/**
+	 * Number of rows evaluated together in one task.
+	 */
+	private static final int BLOCK_SIZE = 4096;
+
+	private static final Pattern PARAMS = Pattern.compile("DEFAULT_PARAMS = \\{(.*)};");
+	private static final Pattern FEATURE = Pattern.compile(
+		"data\\[(\\d+)] = \\(?\\w+\\.getDouble\\(\"([^\"]+)\"\\)(?: - ([^)]+)\\) / ([^;]+))?;");
+	private static final Pattern CLAMP = Pattern.compile("return Math\\.min\\(Math\\.max\\(score\\(data, params\\), ([^)]+)\\), ([^)]+)\\);");
+	private static final Pattern VAR = Pattern.compile("double var(\\d+);");
+	private static final Pattern CONDITION = Pattern.compile("if \\(input\\[(\\d+)] (>|>=|<|<=) ([^)]+)\\) \\{");
+	private static final Pattern LEAF = Pattern.compile("var\\d+ = params\\[(\\d+)];");
+	private static final Pattern OFFSET = Pattern.compile("([^ (]+) \\+ \\((.*)\\)");
+	private static final Pattern SCALE = Pattern.compile("\\((.*)\\) \\* ([^ )]+)");
+
+	private final List<String> features;
+
+	/**
+	 * Mean and standard deviation of standardized features, NaN if a feature is used as is.
+	 */
+	private final double[] mean;
+	private final double[] std;
+
+	private final double lower;
+	private final double upper;
+	private final double init;
+	private final double scale;
+	private final double offset;
+	private final double[] defaultParams;
+
+	private final int[] roots;
+
+	/**
+	 * Feature index of each node, -1 for leaves.
+	 */
+	private final int[] feature;
+	private final double[] threshold;
+
+	/**
+	 * Child if the feature value is smaller or equal the threshold. For leaves the index of the parameter.
+	 */
+	private final int[] left;
+
+	/**
+	 * Child if the feature value is larger than the threshold.
+	 */
+	private final int[] right;
+
+	private TreeEnsemble(Builder b) {
+		this.features = Collections.unmodifiableList(b.features);
+		this.mean = b.mean.stream().mapToDouble(Double::doubleValue).toArray();
+		this.std = b.std.stream().mapToDouble(Double::doubleValue).toArray();
+		this.lower = b.lower;
+		this.upper = b.upper;
+		this.init = b.init;
+		this.scale = b.scale;
+		this.offset = b.offset;
+		this.defaultParams = b.params;
+		this.roots = b.roots.stream().mapToInt(Integer::intValue).toArray();
+		this.feature = b.feature.stream().mapToInt(Integer::intValue).toArray();
+		this.threshold = b.threshold.stream().mapToDouble(Double::doubleValue).toArray();
+		this.left = b.left.stream().mapToInt(Integer::intValue).toArray();
+		this.right = b.right.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Load the converted model for a generated model class.
+	 */
+	public static TreeEnsemble load(Class<?> model) {
+		String name = model.getSimpleName() + ".trees";
+		try (InputStream in = model.getResourceAsStream(name)) {
+			if (in == null)
+				throw new IllegalArgumentException("No converted model found for " + model.getName());
+
+			return read(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Read model in the <code>.trees</code> format.
+	 */
+	static TreeEnsemble read(BufferedReader reader) throws IOException {
+
+		Builder b = new Builder();
+		int treeStart = 0;
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+
+			if (line.isBlank() || line.startsWith("#"))
+				continue;
+
+			String[] t = line.split(" ");
+			switch (t[0]) {
+				case "feature" -> {
+					b.features.add(t[1]);
+					b.mean.add(t.length > 2 ? Double.parseDouble(t[2]) : Double.NaN);
+					b.std.add(t.length > 2 ? Double.parseDouble(t[3]) : Double.NaN);
+				}
+				case "clamp" -> {
+					b.lower = Double.parseDouble(t[1]);
+					b.upper = Double.parseDouble(t[2]);
+				}
+				case "init" -> b.init = Double.parseDouble(t[1]);
+				case "scale" -> b.scale = Double.parseDouble(t[1]);
+				case "offset" -> b.offset = Double.parseDouble(t[1]);
+				case "params" -> b.params = Arrays.stream(t, 1, t.length).mapToDouble(Double::parseDouble).toArray();
+				case "tree" -> {
+					treeStart = b.feature.size();
+					b.roots.add(treeStart);
+				}
+				case "n" -> b.node(Integer.parseInt(t[1]), Double.parseDouble(t[2]),
+					treeStart + Integer.parseInt(t[3]), treeStart + Integer.parseInt(t[4]));
+				case "l" -> b.leaf(Integer.parseInt(t[1]));
+				default -> throw new IllegalArgumentException("Unknown entry: " + line);
+			}
+		}
+
+		return new TreeEnsemble(b);
+	}
+
+	/**
+	 * Names of the input features, in the order they are expected by {@link #predict(double[][], int)}.
+	 */
+	public List<String> getFeatures() {
+		return features;
+	}
+
+	public double[] getDefaultParams() {
+		return defaultParams;
+	}
+
+	/**
+	 * Raw score for one row of already transformed inputs. Same as the <code>score</code> method of the generated code.
+	 */
+	public double score(double[] input, double[] params) {
+		double sum = init;
+		for (int root : roots) {
+			sum += params[leaf(root, input)];
+		}
+		return offset + sum * scale;
+	}
+
+	private int leaf(int node, double[] input) {
+		while (feature[node] >= 0) {
+			node = input[feature[node]] > threshold[node] ? right[node] : left[node];
+		}
+		return left[node];
+	}
+
+	/**
+	 * Predict all rows using the default parameters.
+	 *
+	 * @see #predict(double[][], int, double[])
+	 */
+	public double[] predict(double[][] columns, int n) {
+		return predict(columns, n, defaultParams);
+	}
+
+	/**
+	 * Predict a batch of rows. The input is given column-wise with one array of raw values per feature of {@link #getFeatures()}.
+	 * Rows are processed in parallel blocks, each block is evaluated tree by tree.
+	 *
+	 * @param columns raw feature values, indexed by feature and row
+	 * @param n       number of rows
+	 */
+	public double[] predict(double[][] columns, int n, double[] params) {
+		double[] result = new double[n];
+		predict(columns, n, params, result);
+		return result;
+	}
+
+	/**
+	 * Predict a batch of rows and write the predictions into the first <code>n</code> entries of the result array.
+	 *
+	 * @see #predict(double[][], int, double[])
+	 */
+	public void predict(double[][] columns, int n, double[] params, double[] result) {
+
+		if (columns.length != features.size())
+			throw new IllegalArgumentException("Expected %d columns, got %d".formatted(features.size(), columns.length));
+
+		double[][] input = new double[columns.length][];
+		for (int f = 0; f < columns.length; f++) {
+			input[f] = transform(f, columns[f], n);
+		}
+
+		if (result.length < n)
+			throw new IllegalArgumentException("Result array is too small for %d rows".formatted(n));
+
+		IntStream.range(0, (n + BLOCK_SIZE - 1) / BLOCK_SIZE).parallel().forEach(block -> {
+
+			int start = block * BLOCK_SIZE;
+			int end = Math.min(n, start + BLOCK_SIZE);
+
+			Arrays.fill(result, start, end, init);
+
+			for (int root : roots) {
+				for (int i = start; i < end; i++) {
+					int node = root;
+					while (feature[node] >= 0) {
+						node = input[feature[node]][i] > threshold[node] ? right[node] : left[node];
+					}
+					result[i] += params[left[node]];
+				}
+			}
+
+			for (int i = start; i < end; i++) {
+				result[i] = Math.min(Math.max(offset + result[i] * scale, lower), upper);
+			}
+		});
+	}
+
+	/**
+	 * Apply standardization, if needed, and validate input.
+	 */
+	private double[] transform(int f, double[] column, int n) {
+
+		double[] result = Double.isNaN(mean[f]) ? column : new double[n];
+		for (int i = 0; i < n; i++) {
+			if (Double.isNaN(column[i]))
+				throw new IllegalArgumentException("Invalid data at index %d for row %d".formatted(f, i));
+
+			if (result != column)
+				result[i] = (column[i] - mean[f]) / std[f];
+		}
+
+		return result;
+	}
+
+	/**
+	 * Convert generated java model code into the <code>.trees</code> format.
+	 */
+	public static void convert(Path javaFile, Path output) throws IOException {
+
+		List<String> lines = Files.readAllLines(javaFile).stream().map(String::strip).toList();
+
+		try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(output))) {
+
+			w.println("# Tree ensemble converted from " + javaFile.getFileName() + ", do not modify.");
+
+			int i = 0;
+			int features = 0;
+			while (!lines.get(i).startsWith("public static double score(")) {
+
+				String line = lines.get(i++);
+				Matcher m;
+				if ((m = FEATURE.matcher(line)).matches()) {
+					if (Integer.parseInt(m.group(1)) != features++)
+						throw new IllegalStateException("Unexpected feature order at " + line);
+
+					w.println("feature " + m.group(2) + (m.group(3) != null ? " " + num(m.group(3)) + " " + num(m.group(4)) : ""));
+				} else if ((m = CLAMP.matcher(line)).matches()) {
+					w.println("clamp " + num(m.group(1)) + " " + num(m.group(2)));
+				} else if ((m = PARAMS.matcher(line)).find()) {
+					w.println("params " + String.join(" ", Arrays.stream(m.group(1).split(", ")).map(TreeEnsemble::num).toList()));
+				}
+			}
+
+			// skip score signature
+			i++;
+
+			int trees = 0;
+			Matcher m;
+			while ((m = VAR.matcher(lines.get(i))).matches()) {
+
+				if (Integer.parseInt(m.group(1)) != trees)
+					throw new IllegalStateException("Unexpected tree order at " + lines.get(i));
+
+				List<String> nodes = new ArrayList<>();
+				i = convertNode(lines, i + 1, nodes);
+
+				w.println("tree");
+				nodes.forEach(w::println);
+				trees++;
+			}
+
+			convertReturn(lines.get(i), trees, w);
+		}
+	}
+
+	/**
+	 * Converts one (sub)tree starting at the given line, nodes are appended in depth first order.
+	 *
+	 * @return the line after the subtree
+	 */
+	private static int convertNode(List<String> lines, int i, List<String> nodes) {
+
+		String line = lines.get(i);
+		Matcher m = LEAF.matcher(line);
+		if (m.matches()) {
+			nodes.add("l " + m.group(1));
+			return i + 1;
+		}
+
+		m = CONDITION.matcher(line);
+		if (!m.matches())
+			throw new IllegalStateException("Unexpected line " + line);
+
+		int feature = Integer.parseInt(m.group(1));
+		String op = m.group(2);
+		double value = Double.parseDouble(m.group(3));
+
+		int idx = nodes.size();
+		nodes.add(null);
+
+		int trueChild = nodes.size();
+		i = convertNode(lines, i + 1, nodes);
+
+		if (!lines.get(i).equals("} else {"))
+			throw new IllegalStateException("Expected else branch, got " + lines.get(i));
+
+		int falseChild = nodes.size();
+		i = convertNode(lines, i + 1, nodes);
+
+		if (!lines.get(i).equals("}"))
+			throw new IllegalStateException("Expected end of branch, got " + lines.get(i));
+
+		// All comparisons are expressed as value > threshold, which is exact for non NaN inputs
+		String node = switch (op) {
+			case ">" -> "n %d %s %d %d".formatted(feature, value, falseChild, trueChild);
+			case ">=" -> "n %d %s %d %d".formatted(feature, Math.nextDown(value), falseChild, trueChild);
+			case "<=" -> "n %d %s %d %d".formatted(feature, value, trueChild, falseChild);
+			case "<" -> "n %d %s %d %d".formatted(feature, Math.nextDown(value), trueChild, falseChild);
+			default -> throw new IllegalStateException("Unknown operator " + op);
+		};
+
+		nodes.set(idx, node);
+		return i + 1;
+	}
+
+	/**
+	 * Converts the final expression combining all trees.
+	 */
+	private static void convertReturn(String line, int trees, PrintWriter w) {
+
+		if (!line.startsWith("return ") || !line.endsWith(";"))
+			throw new IllegalStateException("Expected return statement, got " + line);
+
+		String expr = line.substring(7, line.length() - 1);
+
+		Matcher m;
+		if ((m = OFFSET.matcher(expr)).matches()) {
+			w.println("offset " + num(m.group(1)));
+			expr = m.group(2);
+		} else if ((m = SCALE.matcher(expr)).matches()) {
+			w.println("scale " + num(m.group(2)));
+			expr = m.group(1);
+		}
+
+		String[] terms = expr.split(" \\+ ");
+		int k = 0;
+		if (!terms[0].startsWith("var")) {
+			w.println("init " + num(terms[0]));
+			k = 1;
+		}
+
+		if (terms.length - k != trees)
+			throw new IllegalStateException("Expected sum of %d trees, got %s".formatted(trees, expr));
+
+		for (int j = 0; j < trees; j++) {
+			if (!terms[k + j].equals("var" + j))
+				throw new IllegalStateException("Unexpected term " + terms[k + j]);
+		}
+	}
+
+	/**
+	 * Normalize number literal.
+	 */
+	private static String num(String literal) {
+		return Double.toString(Double.parseDouble(literal.strip()));
+	}
+
+	/**
+	 * Convert generated model classes. Arguments are the java files, followed by the output directory.
+	 */
+	public static void main(String[] args) throws IOException {
+		Path dir = Path.of(args[args.length - 1]);
+		for (int i = 0; i < args.length - 1; i++) {
+			Path file = Path.of(args[i]);
+			convert(file, dir.resolve(file.getFileName().toString().replace(".java", ".trees")));
+		}
+	}
+
+	/**
+	 * Collects the model while reading.
+	 */
+	private static final class Builder {
+
+		private final List<String> features = new ArrayList<>();
+		private final List<Double> mean = new ArrayList<>();
+		private final List<Double> std = new ArrayList<>();
+		private final List<Integer> roots = new ArrayList<>();
+		private final List<Integer> feature = new ArrayList<>();
+		private final List<Double> threshold = new ArrayList<>();
+		private final List<Integer> left = new ArrayList<>();
+		private final List<Integer> right = new ArrayList<>();
+
+		private double lower = Double.NEGATIVE_INFINITY;
+		private double upper = Double.POSITIVE_INFINITY;
+		private double init = 0;
+		private double scale = 1;
+		private double offset = 0;
+		private double[] params = new double[0];
+
+		private void node(int f, double t, int l, int r) {
+			feature.add(f);
+			threshold.add(t);
+			left.add(l);
+			right.add(r);
+		}
+
+		private void leaf(int param) {
+			feature.add(-1);
+			threshold.add(Double.NaN);
+			left.add(param);
+			right.add(-1);
+		}
+	}
+}
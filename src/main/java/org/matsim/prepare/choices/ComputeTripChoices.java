@@ -11,7 +11,6 @@ import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.api.core.v01.population.Plan;
 import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.application.MATSimAppCommand;
 import org.matsim.application.options.ScenarioOptions;
@@ -28,15 +27,18 @@ import org.matsim.prepare.population.Attributes;
 import org.matsim.utils.objectattributes.attributable.AttributesImpl;
 import picocli.CommandLine;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
 import java.util.SplittableRandom;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 @CommandLine.Command(
@@ -57,6 +59,9 @@ public class ComputeTripChoices implements MATSimAppCommand {
 	@CommandLine.Option(names = "--output", description = "Input trips from survey data, in matsim-python-tools format.", required = true)
 	private Path output;
 
+	@CommandLine.Option(names = "--batch-size", description = "Number of persons processed together by one worker", defaultValue = "100")
+	private int batchSize;
+
 	public static void main(String[] args) {
 		new ComputeTripChoices().execute(args);
 	}
@@ -64,6 +69,9 @@ public class ComputeTripChoices implements MATSimAppCommand {
 	@Override
 	public Integer call() throws Exception {
 
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+
 		Config config = this.scenario.getConfig();
 		config.controller().setOutputDirectory("choice-output");
 		config.controller().setLastIteration(0);
@@ -79,76 +87,94 @@ public class ComputeTripChoices implements MATSimAppCommand {
 		Scenario scenario = injector.getInstance(Scenario.class);
 
 		ThreadLocal<TripRouter> ctx = ThreadLocal.withInitial(() -> injector.getInstance(TripRouter.class));
-		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
 
-		List<CompletableFuture<List<Object>>> futures = new ArrayList<>();
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		List<Person> persons = scenario.getPopulation().getPersons().values().stream()
+			.filter(p -> p.getAttributes().getAttribute(Attributes.REF_MODES) != null)
+			.map(p -> (Person) p)
+			.toList();
 
-		Collection<? extends Person> persons = scenario.getPopulation().getPersons().values();
+		long trips = persons.stream().mapToLong(p -> TripStructureUtils.getTrips(p.getSelectedPlan()).size()).sum();
 
-		// Progress bar will be inaccurate
-		ProgressBar pb = new ProgressBar("Computing choices", persons.size() * 3L);
+		ProgressBar pb = new ProgressBar("Computing choices", trips);
 
 		SplittableRandom rnd = new SplittableRandom();
 
-		for (Person person : persons) {
+		// Batches are written in submission order, at most this many are pending at the same time
+		Deque<Future<List<List<Object>>>> pending = new ArrayDeque<>();
+		int maxPending = threads * 4;
 
-			if (person.getAttributes().getAttribute(Attributes.REF_MODES) == null) {
-				continue;
-			}
+		try (CSVPrinter csv = new CSVPrinter(Files.newBufferedWriter(output), CSVFormat.DEFAULT)) {
 
-			Plan plan = person.getSelectedPlan();
+			List<String> header = new ArrayList<>(List.of("p_id", "seq", "trip_n", "choice", "beelineDist"));
 
-			for (TripStructureUtils.Trip trip : TripStructureUtils.getTrips(plan)) {
+			for (String mode : modes) {
+				header.add(mode + "_km");
+				header.add(mode + "_hours");
+				header.add(mode + "_walk_km");
+				header.add(mode + "_valid");
+			}
 
-				// Randomize departure times
-				double departure = trip.getOriginActivity().getEndTime().seconds() + rnd.nextInt(-600, 600);
+			csv.printRecord(header);
 
-				futures.add(CompletableFuture.supplyAsync(() -> {
-					TripRouter r = ctx.get();
+			for (int i = 0; i < persons.size(); i += batchSize) {
 
-					List<Object> entries = computeAlternatives(r, scenario.getNetwork(), person, trip, departure);
-					pb.step();
+				List<Person> batch = persons.subList(i, Math.min(i + batchSize, persons.size()));
+				SplittableRandom batchRnd = rnd.split();
 
-					return entries;
+				pending.add(executor.submit(() -> computeBatch(ctx.get(), scenario.getNetwork(), batch, batchRnd, pb)));
 
-				}, executor));
+				if (pending.size() >= maxPending)
+					writeRows(csv, pending.poll());
+			}
 
+			while (!pending.isEmpty()) {
+				writeRows(csv, pending.poll());
 			}
+
+		} finally {
+			executor.shutdownNow();
+			pb.close();
 		}
 
-		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-			.exceptionally(ex -> {
-				log.error("Error while computing trip choices", ex);
-				return null;
-			})
-			.join();
+		log.info("Computed choices for {} trips of {} persons", trips, persons.size());
 
-		executor.shutdown();
-		pb.close();
+		return 0;
+	}
 
-		try (CSVPrinter csv = new CSVPrinter(Files.newBufferedWriter(output), CSVFormat.DEFAULT)) {
+	/**
+	 * Compute the rows of all trips of a batch of persons.
+	 */
+	private List<List<Object>> computeBatch(TripRouter router, Network network, List<Person> batch, SplittableRandom rnd, ProgressBar pb) {
 
-			List<String> header = new ArrayList<>(List.of("p_id", "seq", "trip_n", "choice", "beelineDist"));
+		List<List<Object>> rows = new ArrayList<>();
 
-			for (String mode : modes) {
-				header.add(mode + "_km");
-				header.add(mode + "_hours");
-				header.add(mode + "_walk_km");
-				header.add(mode + "_valid");
-			}
+		for (Person person : batch) {
+			for (TripStructureUtils.Trip trip : TripStructureUtils.getTrips(person.getSelectedPlan())) {
 
-			csv.printRecord(header);
+				// Randomize departure times
+				double departure = trip.getOriginActivity().getEndTime().seconds() + rnd.nextInt(-600, 600);
 
-			for (CompletableFuture<List<Object>> f : futures) {
+				List<Object> entries = computeAlternatives(router, network, person, trip, departure);
+				if (entries != null)
+					rows.add(entries);
 
-				List<Object> entries = f.get();
-				if (entries != null) {
-					csv.printRecord(entries);
-				}
+				pb.step();
 			}
 		}
 
-		return 0;
+		return rows;
+	}
+
+	/**
+	 * Wait for a batch to complete and write its rows.
+	 */
+	private static void writeRows(CSVPrinter csv, Future<List<List<Object>>> batch) throws IOException, InterruptedException, ExecutionException {
+		for (List<Object> row : batch.get()) {
+			csv.printRecord(row);
+		}
 	}
 
 	/**
@@ -0,0 +1,88 @@
+package org.matsim.prepare.drt;
+
+import java.util.SplittableRandom;
+
+/**
+ * Samples indices proportional to their weights in constant time, using Vose's alias method.
+ * The table is immutable and can be used from multiple threads, each with its own random generator.
+ */
+final class AliasTable {
+
+	private final double[] prob;
+	private final int[] alias;
+
+	/**
+	 * Create table from non-negative weights, of which at least one has to be positive.
+	 */
+	AliasTable(double[] weights) {
+
+		int n = weights.length;
+		double sum = 0;
+		for (double w : weights) {
+			if (w < 0 || Double.isNaN(w))
+				throw new IllegalArgumentException("Weights must not be negative: " + w);
+			sum += w;
+		}
+
+		if (sum <= 0)
+			throw new IllegalArgumentException("At least one weight must be positive");
+
+		prob = new double[n];
+		alias = new int[n];
+
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int s = 0;
+		int l = 0;
+
+		for (int i = 0; i < n; i++) {
+			scaled[i] = weights[i] * n / sum;
+			if (scaled[i] < 1)
+				small[s++] = i;
+			else
+				large[l++] = i;
+		}
+
+		while (s > 0 && l > 0) {
+			int lo = small[--s];
+			int hi = large[--l];
+
+			prob[lo] = scaled[lo];
+			alias[lo] = hi;
+
+			scaled[hi] = scaled[hi] + scaled[lo] - 1;
+			if (scaled[hi] < 1)
+				small[s++] = hi;
+			else
+				large[l++] = hi;
+		}
+
+		// Remaining entries are 1, up to rounding errors
+		while (l > 0) {
+			int i = large[--l];
+			prob[i] = 1;
+			alias[i] = i;
+		}
+		while (s > 0) {
+			int i = small[--s];
+			prob[i] = 1;
+			alias[i] = i;
+		}
+	}
+
+	/**
+	 * Number of entries.
+	 */
+	int size() {
+		return prob.length;
+	}
+
+	/**
+	 * Draw an index.
+	 */
+	int sample(SplittableRandom rnd) {
+		int i = rnd.nextInt(prob.length);
+		return rnd.nextDouble() < prob[i] ? i : alias[i];
+	}
+}
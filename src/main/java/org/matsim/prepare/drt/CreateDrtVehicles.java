@@ -20,15 +20,20 @@
 package org.matsim.prepare.drt;
 
 import com.opencsv.CSVWriter;
-import me.tongfei.progressbar.ProgressBar;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
 import org.matsim.application.MATSimAppCommand;
 import org.matsim.application.options.CrsOptions;
 import org.matsim.application.options.ShpOptions;
@@ -37,9 +42,12 @@ import org.matsim.contrib.dvrp.fleet.DvrpVehicleSpecification;
 import org.matsim.contrib.dvrp.fleet.FleetWriter;
 import org.matsim.contrib.dvrp.fleet.ImmutableDvrpVehicleSpecification;
 import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.router.TripStructureUtils;
 import org.matsim.core.scenario.ProjectionUtils;
 import org.matsim.core.utils.geometry.CoordinateTransformation;
 import org.matsim.core.utils.geometry.geotools.MGC;
+import org.matsim.prepare.facilities.LinkSegmentIndex;
 import org.matsim.run.OpenBerlinScenario;
 import picocli.CommandLine;
 
@@ -48,15 +56,13 @@ import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 
 @CommandLine.Command(name = "create-drt-vehicles", description = "Create DRT vehicles for a scenario")
 public class CreateDrtVehicles implements MATSimAppCommand {
 
 	private static final Logger log = LogManager.getLogger(CreateDrtVehicles.class);
-	private final SplittableRandom random = new SplittableRandom(1234);
 	@CommandLine.Option(names = "--network", description = "Path to network", required = true)
 	private String networkPath;
 	@CommandLine.Option(names = "--output", description = "Output prefix, actual names will be appended", required = true)
@@ -67,6 +73,12 @@ public class CreateDrtVehicles implements MATSimAppCommand {
 	private Set<Integer> numberOfVehicles;
 	@CommandLine.Option(names = "--seats", description = "Number of seats per vehicle", defaultValue = "4")
 	private int seats = 4;
+	@CommandLine.Option(names = "--population", description = "Optional population. If given, start links are weighted by the number of activities close to them, instead of area.")
+	private String populationPath;
+	@CommandLine.Option(names = "--area-samples", description = "Number of random points to estimate the area served by each link", defaultValue = "200000")
+	private int areaSamples = 200_000;
+	@CommandLine.Option(names = "--seed", description = "Seed for the placement of vehicles", defaultValue = "1234")
+	private long seed = 1234;
 	@CommandLine.Mixin
 	private ShpOptions shp;
 	@CommandLine.Mixin
@@ -76,10 +88,18 @@ public class CreateDrtVehicles implements MATSimAppCommand {
 		new CreateDrtVehicles().execute(args);
 	}
 
+	/**
+	 * Random generator for one sample, independent of the processing order.
+	 */
+	private static SplittableRandom random(long seed, int index) {
+		return new SplittableRandom(seed * 0x9e3779b97f4a7c15L + index);
+	}
+
 	private void writeVehStartPositionsCSV(Network network, List<DvrpVehicleSpecification> vehicles, String fileNameBase) {
-		Map<Id<Link>, Long> linkId2NrVeh = vehicles.stream().
-			map(DvrpVehicleSpecification::getStartLinkId).
-			collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+		Map<Id<Link>, Long> linkId2NrVeh = new LinkedHashMap<>();
+		for (DvrpVehicleSpecification vehicle : vehicles) {
+			linkId2NrVeh.merge(vehicle.getStartLinkId(), 1L, Long::sum);
+		}
 		try {
 			CSVWriter writer = new CSVWriter(Files.newBufferedWriter(Paths.get(fileNameBase + "_startPositions.csv")), ';', '"', '"', "\n");
 			writer.writeNext(new String[]{"link", "x", "y", "drtVehicles"}, false);
@@ -96,65 +116,113 @@ public class CreateDrtVehicles implements MATSimAppCommand {
 		}
 	}
 
+	/**
+	 * Links within the service area that can be used as start link, together with a table to sample them.
+	 */
+	private record StartLinks(List<Link> links, AliasTable table) {
+	}
 
-	public final void createVehiclesByRandomPointInShape(Network network, int amount) {
-		List<DvrpVehicleSpecification> vehicles = new ArrayList<>();
+	/**
+	 * Build the sampling structure for start links. Links are weighted either by the area closest to them,
+	 * which is the same distribution as snapping uniform random points in the service area, or by the number of activities.
+	 */
+	StartLinks createStartLinks(Network network) {
 
-		Geometry g = shp.getGeometry();
 		ShpOptions.Index index = shp.createIndex(ProjectionUtils.getCRS(network), "_");
-		CoordinateTransformation ct = shp.createInverseTransformation(ProjectionUtils.getCRS(network));
 
-		ProgressBar pb = new ProgressBar("Creating DRT vehicles", amount);
+		LinkSegmentIndex linkIndex = new LinkSegmentIndex(network, link -> link.getAllowedModes().contains(drtAllowedMode) &&
+			index.contains(link.getFromNode().getCoord()) && index.contains(link.getToNode().getCoord()));
 
-		for (int i = 0; i < amount; i++) {
-			Link link = null;
-
-			while (link == null) {
-				Point p = getRandomPointInServiceArea(g);
-				link = NetworkUtils.getNearestLinkExactly(network, ct.transform(MGC.point2Coord(p)));
-				if (index.contains(link.getFromNode().getCoord()) && index.contains(link.getToNode().getCoord())) {
-					if (link.getAllowedModes().contains(drtAllowedMode)) {
-						// ok
-					} else {
-						link = null;
-					}
-					// ok, the link is within the shape file
-				} else {
-					link = null;
-				}
+		if (linkIndex.size() == 0)
+			throw new IllegalStateException("No link with mode %s within the service area.".formatted(drtAllowedMode));
+
+		List<Coord> coords;
+		if (populationPath != null) {
+			coords = activityCoords(PopulationUtils.readPopulation(populationPath), index);
+		} else {
+			coords = randomCoords(network);
+		}
+
+		List<Link> links = new ArrayList<>();
+		Map<Id<Link>, Integer> idx = new HashMap<>();
+
+		// Links are snapped in parallel, but counted in a deterministic order
+		List<Link> nearest = coords.parallelStream().map(linkIndex::nearest).toList();
+
+		DoubleArrayList weights = new DoubleArrayList();
+		for (Link link : nearest) {
+			int i = idx.computeIfAbsent(link.getId(), k -> {
+				links.add(link);
+				weights.add(0);
+				return links.size() - 1;
+			});
+			weights.set(i, weights.getDouble(i) + 1);
+		}
+
+		log.info("Sampling start positions from {} links with {} samples", links.size(), coords.size());
+
+		return new StartLinks(links, new AliasTable(weights.toDoubleArray()));
+	}
+
+	private List<Coord> randomCoords(Network network) {
+
+		Geometry g = shp.getGeometry();
+		PreparedGeometry prepared = PreparedGeometryFactory.prepare(g);
+		CoordinateTransformation ct = shp.createInverseTransformation(ProjectionUtils.getCRS(network));
+		Envelope env = g.getEnvelopeInternal();
+
+		return IntStream.range(0, areaSamples).parallel()
+			.mapToObj(i -> {
+				SplittableRandom rnd = random(seed, -1 - i);
+				double x;
+				double y;
+				do {
+					x = env.getMinX() + rnd.nextDouble() * env.getWidth();
+					y = env.getMinY() + rnd.nextDouble() * env.getHeight();
+				} while (!prepared.contains(MGC.xy2Point(x, y)));
+
+				return ct.transform(new Coord(x, y));
+			})
+			.toList();
+	}
+
+	private static List<Coord> activityCoords(Population population, ShpOptions.Index index) {
+		List<Coord> coords = new ArrayList<>();
+		for (Person person : population.getPersons().values()) {
+			for (Activity act : TripStructureUtils.getActivities(person.getSelectedPlan(), TripStructureUtils.StageActivityHandling.ExcludeStageActivities)) {
+				if (act.getCoord() != null && index.contains(act.getCoord()))
+					coords.add(act.getCoord());
 			}
+		}
+
+		return coords;
+	}
+
+	/**
+	 * Draw start links for the largest fleet. Smaller fleets consist of the first vehicles, so all fleets are nested.
+	 */
+	static List<Link> placeVehicles(StartLinks startLinks, int amount, long seed) {
+		return IntStream.range(0, amount).parallel()
+			.mapToObj(i -> startLinks.links().get(startLinks.table().sample(random(seed, i))))
+			.toList();
+	}
 
-			pb.step();
+	private void writeFleet(Network network, List<Link> startLinks, int amount) {
 
+		List<DvrpVehicleSpecification> vehicles = new ArrayList<>();
+		for (int i = 0; i < amount; i++) {
 			vehicles.add(ImmutableDvrpVehicleSpecification.newBuilder().id(Id.create("drt" + i, DvrpVehicle.class))
-				.startLinkId(link.getId())
+				.startLinkId(startLinks.get(i).getId())
 				.capacity(seats)
 				.serviceBeginTime(1)
 				.serviceEndTime(30 * 3600)
 				.build());
-
 		}
+
 		String fileNameBase = output + "drt-by-rndLocations-%dvehicles-%dseats".formatted(amount, seats);
 		new FleetWriter(vehicles.stream()).write(fileNameBase + ".xml.gz");
 
 		writeVehStartPositionsCSV(network, vehicles, fileNameBase);
-
-		pb.close();
-	}
-
-	private Point getRandomPointInServiceArea(Geometry g) {
-		Point p;
-		double x;
-		double y;
-		do {
-			x = g.getEnvelopeInternal().getMinX() + random.nextDouble()
-				* (g.getEnvelopeInternal().getMaxX() - g.getEnvelopeInternal().getMinX());
-			y = g.getEnvelopeInternal().getMinY() + random.nextDouble()
-				* (g.getEnvelopeInternal().getMaxY() - g.getEnvelopeInternal().getMinY());
-			p = MGC.xy2Point(x, y);
-		}
-		while (!g.contains(p));
-		return p;
 	}
 
 	@Override
@@ -166,9 +234,14 @@ public class CreateDrtVehicles implements MATSimAppCommand {
 
 		Network network = NetworkUtils.readNetwork(networkPath);
 
-		for (int numberOfVehicles : numberOfVehicles) {
-			createVehiclesByRandomPointInShape(network, numberOfVehicles);
-		}
+		StartLinks startLinks = createStartLinks(network);
+
+		int max = Collections.max(numberOfVehicles);
+		List<Link> placed = placeVehicles(startLinks, max, seed);
+
+		numberOfVehicles.parallelStream().forEach(n -> writeFleet(network, placed, n));
+
+		log.info("Created fleets with {} vehicles", numberOfVehicles);
 
 		return 0;
 
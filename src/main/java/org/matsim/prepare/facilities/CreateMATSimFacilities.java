@@ -1,8 +1,6 @@
 package org.matsim.prepare.facilities;
 
 import com.google.common.math.Quantiles;
-import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
-import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.apache.logging.log4j.LogManager;
@@ -22,14 +20,14 @@ import org.matsim.core.network.algorithms.TransportModeNetworkFilter;
 import org.matsim.core.utils.geometry.CoordUtils;
 import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.facilities.*;
+import org.matsim.prepare.IdGenerator;
+import org.matsim.prepare.TreeEnsemble;
 import org.matsim.prepare.population.Attributes;
 import org.geotools.api.feature.simple.SimpleFeature;
 import picocli.CommandLine;
 
 import java.nio.file.Path;
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 @CommandLine.Command(
 		name = "facilities",
@@ -51,6 +49,9 @@ public class CreateMATSimFacilities implements MATSimAppCommand {
 	@CommandLine.Option(names = "--output", required = true, description = "Path to output facility file")
 	private Path output;
 
+	@CommandLine.Option(names = "--seed", description = "Seed used to sample points within facilities", defaultValue = "1")
+	private long seed;
+
 	@CommandLine.Mixin
 	private ShpOptions shp;
 
@@ -58,22 +59,6 @@ public class CreateMATSimFacilities implements MATSimAppCommand {
 		new CreateMATSimFacilities().execute(args);
 	}
 
-	/**
-	 * Generate a new unique id within population.
-	 */
-	public static Id<ActivityFacility> generateId(ActivityFacilities facilities, SplittableRandom rnd) {
-
-		Id<ActivityFacility> id;
-		byte[] bytes = new byte[3];
-		do {
-			rnd.nextBytes(bytes);
-			id = Id.create( "f" + HexFormat.of().formatHex(bytes), ActivityFacility.class);
-
-		} while (facilities.getFacilities().containsKey(id));
-
-		return id;
-	}
-
 	@Override
 	public Integer call() throws Exception {
 
@@ -87,21 +72,23 @@ public class CreateMATSimFacilities implements MATSimAppCommand {
 		Network carOnlyNetwork = NetworkUtils.createNetwork();
 		filter.filter(carOnlyNetwork, Set.of(TransportMode.car));
 
+		LinkSegmentIndex index = new LinkSegmentIndex(carOnlyNetwork, l -> !IGNORED_LINK_TYPES.contains(NetworkUtils.getType(l)));
+
+		log.info("Indexed {} links for {} network links", index.size(), carOnlyNetwork.getLinks().size());
+
 		List<SimpleFeature> fts = shp.readFeatures();
 
 		List<Holder> data = fts.parallelStream()
-			.map(ft -> processFeature(ft, carOnlyNetwork))
+			.map(ft -> processFeature(ft, index))
 			.filter(Objects::nonNull)
 			.toList();
 
-		// Compute statistics on the attraction values
-		DescriptiveStatistics work = new DescriptiveStatistics();
-		DescriptiveStatistics other = new DescriptiveStatistics();
+		double[] attractionWork = predictAttraction(TreeEnsemble.load(FacilityAttractionModelWork.class), data);
+		double[] attractionOther = predictAttraction(TreeEnsemble.load(FacilityAttractionModelOther.class), data);
 
-		for (Holder d : data) {
-			work.addValue(d.attractionWork);
-			other.addValue(d.attractionOther);
-		}
+		// Compute statistics on the attraction values
+		DescriptiveStatistics work = new DescriptiveStatistics(attractionWork);
+		DescriptiveStatistics other = new DescriptiveStatistics(attractionOther);
 
 		// Upper bounds for attraction
 		double workUpper = work.getPercentile(95);
@@ -109,10 +96,12 @@ public class CreateMATSimFacilities implements MATSimAppCommand {
 
 		ActivityFacilities facilities = FacilitiesUtils.createActivityFacilities();
 
-		SplittableRandom rnd = new SplittableRandom();
+		IdGenerator ids = new IdGenerator("f", 24, seed);
 		ActivityFacilitiesFactory f = facilities.getFactory();
 
-		for (Holder h : data) {
+		for (int i = 0; i < data.size(); i++) {
+
+			Holder h = data.get(i);
 
 			// Create mean coordinate
 			OptionalDouble x = h.coords.stream().mapToDouble(Coord::getX).average();
@@ -123,7 +112,7 @@ public class CreateMATSimFacilities implements MATSimAppCommand {
 				continue;
 			}
 
-			Id<ActivityFacility> id = generateId(facilities, rnd);
+			Id<ActivityFacility> id = Id.create(ids.next(), ActivityFacility.class);
 
 			ActivityFacility facility = f.createActivityFacility(id, CoordUtils.round(new Coord(x.getAsDouble(), y.getAsDouble())));
 			for (String act : h.activities) {
@@ -133,10 +122,10 @@ public class CreateMATSimFacilities implements MATSimAppCommand {
 			// Filter outliers from the attraction and normalize the attraction
 			// This warrant for further investigate as the best way to normalize the attraction is not yet known
 			facility.getAttributes().putAttribute(Attributes.ATTRACTION_WORK,
-				Math.min(Math.max(h.attractionWork / 5, 1), workUpper)
+				Math.min(Math.max(attractionWork[i] / 5, 1), workUpper)
 			);
 			facility.getAttributes().putAttribute(Attributes.ATTRACTION_OTHER,
-				Math.min(Math.max(h.attractionOther / 5, 1), otherUpper)
+				Math.min(Math.max(attractionOther[i] / 5, 1), otherUpper)
 			);
 
 			facilities.addActivityFacility(facility);
@@ -153,61 +142,78 @@ public class CreateMATSimFacilities implements MATSimAppCommand {
 	/**
 	 * Sample points and choose link with the nearest points. Aggregate everything so there is at most one facility per link.
 	 */
-	private Holder processFeature(SimpleFeature ft, Network network) {
+	private Holder processFeature(SimpleFeature ft, LinkSegmentIndex index) {
 
 		Set<String> activities = activities(ft);
 		if (activities.isEmpty())
 			return null;
 
+		// Points are sampled with a seed depending on the feature, so results do not depend on processing order
+		SplittableRandom rnd = new SplittableRandom(seed * 31 + ft.getID().hashCode());
+
 		// Pairs of coords and corresponding links
-		List<Coord> coords = samplePoints((MultiPolygon) ft.getDefaultGeometry(), 23);
-		List<Id<Link>> links = coords.stream().map(coord -> NetworkUtils.getNearestLinkExactly(network, coord).getId()).toList();
+		List<Coord> coords = samplePoints((MultiPolygon) ft.getDefaultGeometry(), 23, rnd);
+		List<Link> links = index.nearest(coords);
 
-		Map<Id<Link>, Long> map = links.stream()
-				.filter(l -> !IGNORED_LINK_TYPES.contains(NetworkUtils.getType(network.getLinks().get(l))))
-				.collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+		// Choose the link with most points, on ties the one found first
+		int best = -1;
+		int bestCount = 0;
+		for (int i = 0; i < links.size(); i++) {
+			Link l = links.get(i);
+			if (l == null)
+				continue;
 
-		// Everything could be filtered and map empty
-		if (map.isEmpty())
-			return null;
+			int count = 0;
+			for (int j = i; j < links.size(); j++) {
+				if (links.get(j) == l)
+					count++;
+			}
 
-		Object2DoubleMap<String> features = new Object2DoubleOpenHashMap<>();
-		for (int i = 0; i < ft.getAttributeCount(); i++) {
-			if (ft.getAttribute(i) instanceof Number number) {
-				features.put(ft.getFeatureType().getDescriptor(i).getLocalName(), number.doubleValue());
+			if (count > bestCount) {
+				best = i;
+				bestCount = count;
 			}
 		}
 
-		double area = (double) ft.getAttribute("area");
+		// No link could be found
+		if (best == -1)
+			return null;
 
-		List<Map.Entry<Id<Link>, Long>> counts = map.entrySet().stream().sorted(Map.Entry.comparingByValue())
-				.toList();
+		// The "main" link of the facility, with the first drawn coordinate associated to it
+		Holder holder = new Holder(ft, links.get(best).getId(), activities, new ArrayList<>());
+		holder.coords.add(coords.get(best));
 
-		// The "main" link of the facility
-		Id<Link> link = counts.get(counts.size() - 1).getKey();
+		return holder;
+	}
 
-		Holder holder = new Holder(link, activities, new ArrayList<>(),
-			area * FacilityAttractionModelWork.INSTANCE.predict(features, null),
-			area * FacilityAttractionModelOther.INSTANCE.predict(features, null)
-		);
+	/**
+	 * Predict the attraction of all facilities in one batch. The result is scaled by the area of each facility.
+	 */
+	private static double[] predictAttraction(TreeEnsemble model, List<Holder> data) {
 
-		// Search for the original drawn coordinate of the associated link
-		for (int i = 0; i < links.size(); i++) {
-			if (links.get(i).equals(link)) {
-				holder.coords.add(coords.get(i));
-				break;
+		List<String> features = model.getFeatures();
+		double[][] columns = new double[features.size()][data.size()];
+
+		for (int f = 0; f < features.size(); f++) {
+			for (int i = 0; i < data.size(); i++) {
+				// Same as the generated model, attributes that are not numeric are treated as zero
+				if (data.get(i).ft.getAttribute(features.get(f)) instanceof Number number)
+					columns[f][i] = number.doubleValue();
 			}
 		}
 
-		return holder;
+		double[] result = model.predict(columns, data.size());
+		for (int i = 0; i < result.length; i++) {
+			result[i] *= (double) data.get(i).ft.getAttribute("area");
+		}
+
+		return result;
 	}
 
 	/**
 	 * Sample coordinates within polygon.
 	 */
-	private List<Coord> samplePoints(MultiPolygon geometry, int n) {
-
-		SplittableRandom rnd = new SplittableRandom();
+	private static List<Coord> samplePoints(MultiPolygon geometry, int n, SplittableRandom rnd) {
 
 		List<Coord> result = new ArrayList<>();
 		Envelope bbox = geometry.getEnvelopeInternal();
@@ -284,8 +290,7 @@ public class CreateMATSimFacilities implements MATSimAppCommand {
 	/**
 	 * Temporary data holder for facilities.
 	 */
-	private record Holder(Id<Link> linkId, Set<String> activities, List<Coord> coords,
-						  double attractionWork, double attractionOther) {
+	private record Holder(SimpleFeature ft, Id<Link> linkId, Set<String> activities, List<Coord> coords) {
 
 	}
 
@@ -9,6 +9,7 @@ import de.topobyte.osm4j.core.dataset.InMemoryMapDataSet;
 import de.topobyte.osm4j.core.dataset.MapDataSetLoader;
 import de.topobyte.osm4j.core.model.iface.*;
 import de.topobyte.osm4j.core.resolve.EntityNotFoundException;
+import de.topobyte.osm4j.core.resolve.OsmEntityProvider;
 import de.topobyte.osm4j.geometry.GeometryBuilder;
 import de.topobyte.osm4j.pbf.seq.PbfIterator;
 import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
@@ -23,18 +24,19 @@ import org.apache.logging.log4j.Logger;
 import org.geotools.api.data.DataStore;
 import org.geotools.api.data.DataStoreFinder;
 import org.geotools.api.data.SimpleFeatureStore;
-import org.geotools.api.data.Transaction;
 import org.geotools.api.feature.simple.SimpleFeature;
 import org.geotools.api.referencing.crs.CRSAuthorityFactory;
 import org.geotools.api.referencing.operation.MathTransform;
 import org.geotools.api.referencing.operation.TransformException;
-import org.geotools.data.DefaultTransaction;
-import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.geometry.jts.JTS;
+import org.geotools.geopkg.FeatureEntry;
+import org.geotools.geopkg.GeoPackage;
 import org.geotools.geopkg.GeoPkgDataStoreFactory;
 import org.geotools.jdbc.JDBCDataStoreFactory;
 import org.geotools.referencing.CRS;
 import org.locationtech.jts.geom.*;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.locationtech.jts.index.strtree.STRtree;
 import org.matsim.application.MATSimAppCommand;
 import org.matsim.application.options.CrsOptions;
@@ -74,6 +76,11 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 	 */
 	private static final double INTERSECT_THRESHOLD = 0.2;
 
+	/**
+	 * Number of features created and written at once.
+	 */
+	private static final int WRITE_BATCH_SIZE = 10_000;
+
 	private final GeometryBuilder geometryBuilder = new GeometryBuilder();
 	@CommandLine.Option(names = "--input", description = "Path to input .pbf file", required = true)
 	private Path pbf;
@@ -83,6 +90,11 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 	private Path mappingPath;
 	@CommandLine.Option(names = "--exclude", description = "Exclude these activities types from the output", split = ",", defaultValue = "")
 	private Set<String> exclude;
+	@CommandLine.Option(names = "--streaming", description = "Stream the pbf file several times and keep only relevant entities, instead of loading it completely into memory.")
+	private boolean streaming;
+	@CommandLine.Option(names = "--landuse-raster", description = "Cell size in meter of a raster used to approximate landuse areas around facilities. " +
+		"Exact polygon intersections are computed if not set.", defaultValue = "0")
+	private double landuseResolution;
 
 	@CommandLine.Mixin
 	private CrsOptions crs = new CrsOptions("EPSG:4326", OpenBerlinScenario.CRS);
@@ -96,7 +108,7 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 	private Long2ObjectMap<Feature> landuse;
 	private Long2ObjectMap<Feature> entities;
 	private MathTransform transform;
-	private InMemoryMapDataSet data;
+	private OsmEntityProvider data;
 	private int ignored;
 
 	public static void main(String[] args) {
@@ -106,8 +118,6 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 	@Override
 	public Integer call() throws Exception {
 
-		PbfIterator reader = new PbfIterator(Files.newInputStream(pbf), true);
-
 		config = new ObjectMapper().readerFor(ActivityMapping.class).readValue(mappingPath.toFile());
 
 		CRSAuthorityFactory cFactory = CRS.getAuthorityFactory(true);
@@ -143,28 +153,10 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 		entities = new Long2ObjectLinkedOpenHashMap<>();
 		landuse = new Long2ObjectLinkedOpenHashMap<>();
 
-		data = MapDataSetLoader.read(reader, true, true, true);
-
-		log.info("Finished loading pbf file.");
-
-		TLongObjectIterator<OsmNode> it = data.getNodes().iterator();
-		while (it.hasNext()) {
-			it.advance();
-			process(it.value());
-		}
-
-		log.info("Collected {} POIs", pois.size());
-
-		TLongObjectIterator<OsmWay> it2 = data.getWays().iterator();
-		while (it2.hasNext()) {
-			it2.advance();
-			process(it2.value());
-		}
-
-		TLongObjectIterator<OsmRelation> it3 = data.getRelations().iterator();
-		while (it3.hasNext()) {
-			it3.advance();
-			process(it3.value());
+		if (streaming) {
+			readFiltered();
+		} else {
+			readInMemory();
 		}
 
 		log.info("Collected {} landuse shapes", landuse.size());
@@ -173,7 +165,20 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 		if (ignored > 0)
 			log.warn("Ignored {} invalid geometries", ignored);
 
-		FacilityFeatureExtractor ft = new FacilityFeatureExtractor(crs.getTargetCRS(), types, entities, pois, landuse);
+		FacilityFeatureExtractor ft = new FacilityFeatureExtractor(crs.getTargetCRS(), types, entities, pois, landuse, landuseResolution);
+
+		if (landuseResolution > 0) {
+			// Compare with exact computation on a small sample
+			int step = Math.max(1, entities.size() / 500);
+			List<Feature> sample = new ArrayList<>();
+			int i = 0;
+			for (Feature f : entities.values()) {
+				if (i++ % step == 0)
+					sample.add(f);
+			}
+
+			ft.logLanduseAccuracy(sample);
+		}
 
 		processIntersection(landuse.values(), ft.entities, INTERSECT_THRESHOLD);
 
@@ -186,93 +191,207 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 		DataStore ds = DataStoreFinder.getDataStore(Map.of(
 			GeoPkgDataStoreFactory.DBTYPE.key, "geopkg",
 			GeoPkgDataStoreFactory.DATABASE.key, output.toFile().toString(),
-			JDBCDataStoreFactory.BATCH_INSERT_SIZE.key, 100,
+			JDBCDataStoreFactory.BATCH_INSERT_SIZE.key, WRITE_BATCH_SIZE,
 			GeoPkgDataStoreFactory.READ_ONLY.key, false
 		));
 
 		ds.createSchema(ft.featureType);
 
 		SimpleFeatureStore source = (SimpleFeatureStore) ds.getFeatureSource(ft.featureType.getTypeName());
-		ListFeatureCollection collection = new ListFeatureCollection(ft.featureType);
-
-		addFeatures(entities, ft, collection);
-		addFeatures(landuse, ft, collection);
-		addFeatures(pois, ft, collection);
-
-		Transaction transaction = new DefaultTransaction("create");
-		source.setTransaction(transaction);
 
-		source.addFeatures(collection);
-		transaction.commit();
-
-		log.info("Wrote {} features", collection.size());
+		// Features are written while they are being created
+		int written;
+		try (FeatureBatchWriter writer = new FeatureBatchWriter(source, ft.featureType, 4)) {
+			addFeatures(entities, ft, writer);
+			addFeatures(landuse, ft, writer);
+			addFeatures(pois, ft, writer);
+			writer.finish();
+			written = writer.getWritten();
+		}
 
-		transaction.close();
+		log.info("Wrote {} features", written);
 
 		ds.dispose();
 
+		createSpatialIndex(ft.featureType.getTypeName());
+
 		writeMapping(output.toString().replace(".gpkg", "_mapping.csv.gz"),
 			entities.values(), landuse.values(), pois.values());
 
 		return 0;
 	}
 
+	/**
+	 * Load the whole pbf file into memory and process all entities.
+	 */
+	private void readInMemory() throws IOException {
+
+		PbfIterator reader = new PbfIterator(Files.newInputStream(pbf), true);
+		InMemoryMapDataSet data = MapDataSetLoader.read(reader, true, true, true);
+		this.data = data;
+
+		log.info("Finished loading pbf file.");
+
+		TLongObjectIterator<OsmNode> it = data.getNodes().iterator();
+		while (it.hasNext()) {
+			it.advance();
+			process(it.value());
+		}
+
+		log.info("Collected {} POIs", pois.size());
+
+		TLongObjectIterator<OsmWay> it2 = data.getWays().iterator();
+		while (it2.hasNext()) {
+			it2.advance();
+			process(it2.value());
+		}
+
+		TLongObjectIterator<OsmRelation> it3 = data.getRelations().iterator();
+		while (it3.hasNext()) {
+			it3.advance();
+			process(it3.value());
+		}
+	}
+
+	/**
+	 * Read only relevant entities and the nodes needed to build their geometries.
+	 */
+	private void readFiltered() throws IOException {
+
+		FilteredOsmData data = FilteredOsmData.read(pbf, this::isRelevant);
+		this.data = data;
+
+		log.info("Finished reading pbf file.");
+
+		data.getNodes().forEach(this::process);
+
+		log.info("Collected {} POIs", pois.size());
+
+		data.getWays().forEach(this::process);
+		data.getRelations().forEach(this::process);
+	}
+
 	/**
 	 * Tags buildings within that intersections with geometries from list. Used geometries are removed from the list.
+	 * Intersections are computed in parallel, assignments are applied afterward in the original order of the list.
 	 */
 	private void processIntersection(Collection<Feature> list, STRtree index, double threshold) {
 
-		Iterator<Feature> it = ProgressBar.wrap(list.iterator(), "Assigning features");
+		List<Feature> features = new ArrayList<>(list);
 
-		while (it.hasNext()) {
-			Feature ft = it.next();
+		List<List<Feature>> matches;
+		try (ProgressBar pb = new ProgressBar("Assigning features", features.size())) {
+			matches = features.parallelStream()
+				.map(ft -> {
+					List<Feature> result = findIntersecting(ft, index, threshold);
+					pb.step();
+					return result;
+				})
+				.toList();
+		}
 
-			List<Feature> query = index.query(ft.geometry.getBoundary().getEnvelopeInternal());
+		// Applying assignments sequentially guarantees the same result as processing one feature after another
+		for (int i = 0; i < features.size(); i++) {
+			Feature ft = features.get(i);
+			for (Feature other : matches.get(i)) {
+				other.assign(ft);
+			}
+		}
 
-			for (Feature other : query) {
-				// Assign other features to the buildings
-				double otherArea = other.geometry.getArea();
-				try {
-					if (ft.geometry.intersects(other.geometry) && otherArea < MAX_ASSIGN) {
+		list.removeIf(Feature::isAssigned);
+	}
 
-						double intersectArea = ft.geometry.intersection(other.geometry).getArea();
-						if (intersectArea / otherArea > threshold) {
-							other.assign(ft);
-						}
+	/**
+	 * Find all features in the index, that intersect with more than threshold of their area with the given feature.
+	 * This method does not modify any of the features.
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Feature> findIntersecting(Feature ft, STRtree index, double threshold) {
+
+		Envelope env = ft.geometry.getEnvelopeInternal();
+		List<Feature> query = index.query(env);
+
+		if (query.isEmpty())
+			return List.of();
+
+		PreparedGeometry prepared = PreparedGeometryFactory.prepare(ft.geometry);
+		List<Feature> result = new ArrayList<>();
+
+		for (Feature other : query) {
+
+			double otherArea = other.geometry.getArea();
+			if (otherArea >= MAX_ASSIGN)
+				continue;
+
+			// The intersection can not be larger than the intersection of both envelopes
+			Envelope otherEnv = other.geometry.getEnvelopeInternal();
+			if (env.intersection(otherEnv).getArea() / otherArea <= threshold)
+				continue;
+
+			try {
+				if (prepared.intersects(other.geometry)) {
+					double intersectArea = ft.geometry.intersection(other.geometry).getArea();
+					if (intersectArea / otherArea > threshold) {
+						result.add(other);
 					}
-				} catch (TopologyException e) {
-					// some geometries are not well defined
-					if (ft.geometry.getBoundary().intersects(other.geometry.getBoundary()) && otherArea < MAX_ASSIGN) {
-
-						double intersectArea = ft.geometry.getBoundary().intersection(other.geometry.getBoundary()).getArea();
-						if (intersectArea / otherArea > threshold) {
-							other.assign(ft);
-						}
+				}
+			} catch (TopologyException e) {
+				// some geometries are not well defined
+				if (ft.geometry.getBoundary().intersects(other.geometry.getBoundary())) {
+
+					double intersectArea = ft.geometry.getBoundary().intersection(other.geometry.getBoundary()).getArea();
+					if (intersectArea / otherArea > threshold) {
+						result.add(other);
 					}
 				}
 			}
-
-			if (ft.isAssigned())
-				it.remove();
 		}
+
+		return result;
 	}
 
+	/**
+	 * Create features in batches, each batch is created in parallel and then passed to the writer.
+	 */
 	private void addFeatures(Long2ObjectMap<Feature> fts, FacilityFeatureExtractor exc,
-							 ListFeatureCollection collection) {
-
+							 FeatureBatchWriter writer) throws IOException, InterruptedException {
 
 		try (ProgressBar pb = new ProgressBar("Creating features", fts.size())) {
 
-			List<SimpleFeature> features = fts.values().parallelStream()
-				.filter(ft -> !ft.bits.isEmpty())
-				.map(f -> {
-					pb.step();
-					return exc.createFeature(f);
-				})
-				.toList();
+			List<Feature> batch = new ArrayList<>(WRITE_BATCH_SIZE);
+			for (Feature ft : fts.values()) {
+				pb.step();
+				if (ft.bits.isEmpty())
+					continue;
 
-			// toList retains the original order
-			collection.addAll(features);
+				batch.add(ft);
+				if (batch.size() == WRITE_BATCH_SIZE) {
+					writer.add(createFeatures(batch, exc));
+					batch = new ArrayList<>(WRITE_BATCH_SIZE);
+				}
+			}
+
+			writer.add(createFeatures(batch, exc));
+		}
+	}
+
+	private static List<SimpleFeature> createFeatures(List<Feature> batch, FacilityFeatureExtractor exc) {
+		// toList retains the original order
+		return batch.parallelStream()
+			.map(exc::createFeature)
+			.toList();
+	}
+
+	/**
+	 * Creates the spatial index after all features have been inserted, which is faster than updating it on each insert.
+	 */
+	private void createSpatialIndex(String typeName) throws IOException {
+		try (GeoPackage gpkg = new GeoPackage(output.toFile())) {
+			FeatureEntry entry = gpkg.feature(typeName);
+			if (entry != null && !gpkg.hasSpatialIndex(entry)) {
+				gpkg.createSpatialIndex(entry);
+				log.info("Created spatial index for {}", typeName);
+			}
 		}
 	}
 
@@ -307,29 +426,12 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 	 * Stores entities and geometries as necessary.
 	 */
 	private void process(OsmEntity entity) {
-		boolean filtered = true;
-		int n = entity.getNumberOfTags();
-		for (int i = 0; i < n; i++) {
-			OsmTag tag = entity.getTag(i);
-
-			// Buildings are always kept
-			if (tag.getKey().equals("building")) {
-				filtered = false;
-				break;
-			}
-
-			MappingConfig c = config.types.get(tag.getKey());
-			if (c != null) {
-				if (c.values.containsKey("*") || c.values.containsKey(tag.getValue())) {
-					filtered = false;
-					break;
-				}
-			}
-		}
 
-		if (filtered)
+		if (!isRelevant(entity))
 			return;
 
+		int n = entity.getNumberOfTags();
+
 		if (entity instanceof OsmNode node) {
 
 			Point p = geometryBuilder.build(node);
@@ -384,6 +486,28 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 		}
 	}
 
+	/**
+	 * Whether an entity has tags that are used to create facilities.
+	 */
+	private boolean isRelevant(OsmEntity entity) {
+		int n = entity.getNumberOfTags();
+		for (int i = 0; i < n; i++) {
+			OsmTag tag = entity.getTag(i);
+
+			// Buildings are always kept
+			if (tag.getKey().equals("building"))
+				return true;
+
+			MappingConfig c = config.types.get(tag.getKey());
+			if (c != null) {
+				if (c.values.containsKey("*") || c.values.containsKey(tag.getValue()))
+					return true;
+			}
+		}
+
+		return false;
+	}
+
 	/**
 	 * Parse tags into features. Can also be from different entity.
 	 */
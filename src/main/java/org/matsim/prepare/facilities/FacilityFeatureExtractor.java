@@ -2,26 +2,47 @@ package org.matsim.prepare.facilities;
 
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.geotools.api.feature.simple.SimpleFeature;
 import org.geotools.api.feature.simple.SimpleFeatureType;
 import org.geotools.api.referencing.FactoryException;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.referencing.CRS;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.TopologyException;
 import org.locationtech.jts.index.strtree.STRtree;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class to extract more features / columns for the facility shape file.
  */
 final class FacilityFeatureExtractor {
 
+	private static final Logger log = LogManager.getLogger(FacilityFeatureExtractor.class);
+
+	/**
+	 * Landuse types used as features.
+	 */
+	private static final List<String> LANDUSE_TYPES = List.of("residential", "retail", "commercial", "recreation_ground");
+
+	/**
+	 * Types of POIs that are counted.
+	 */
+	private static final List<String> POI_TYPES = List.of("leisure", "shop", "dining");
+
 	final STRtree entities;
 	final STRtree pois;
 	final STRtree landuse;
@@ -32,15 +53,51 @@ final class FacilityFeatureExtractor {
 
 	private final Object2IntMap<String> types;
 
+	/**
+	 * Rasterized landuse per type, empty if exact intersections are used.
+	 */
+	private final Map<String, LanduseRaster> rasters = new HashMap<>();
+
+	/**
+	 * Index of entities with POI counts, created lazily because counts depend on assigned members.
+	 */
+	private volatile STRtree poiIndex;
+
+	private final Collection<Feature> entityFeatures;
+
+	FacilityFeatureExtractor(String crs, Object2IntMap<String> types,
+							 Long2ObjectMap<Feature> entities, Long2ObjectMap<Feature> pois,
+							 Long2ObjectMap<Feature> landuse) throws FactoryException {
+		this(crs, types, entities, pois, landuse, 0);
+	}
+
+	/**
+	 * Create extractor, which uses rasterized landuse with given resolution in meter. If resolution is 0, exact intersections are computed.
+	 */
 	FacilityFeatureExtractor(String crs, Object2IntMap<String> types,
-									Long2ObjectMap<Feature> entities, Long2ObjectMap<Feature> pois,
-									Long2ObjectMap<Feature> landuse) throws FactoryException {
+							 Long2ObjectMap<Feature> entities, Long2ObjectMap<Feature> pois,
+							 Long2ObjectMap<Feature> landuse, double landuseResolution) throws FactoryException {
 
 		this.entities = createIndex(entities);
+		this.entityFeatures = entities.values();
 		this.pois = createIndex(pois);
 		this.landuse = createIndex(landuse);
 		this.types = types;
 
+		if (landuseResolution > 0) {
+			List<LanduseRaster> result = LANDUSE_TYPES.parallelStream()
+				.map(t -> LanduseRaster.create(
+					landuse.values().stream().filter(ft -> ft.hasLanduse(t)).map(ft -> ft.geometry).toList(),
+					landuseResolution))
+				.toList();
+
+			for (int i = 0; i < LANDUSE_TYPES.size(); i++) {
+				rasters.put(LANDUSE_TYPES.get(i), result.get(i));
+			}
+
+			log.info("Created landuse raster with resolution {}m", landuseResolution);
+		}
+
 		SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
 		typeBuilder.setName("facilities");
 		typeBuilder.setCRS(CRS.decode(crs));
@@ -103,12 +160,13 @@ final class FacilityFeatureExtractor {
 		b.add(calcLanduse("commercial", ft.geometry, 1500));
 		b.add(calcLanduse("recreation_ground", ft.geometry, 1500));
 
-		b.add(countPOIs("leisure", ft));
-		b.add(countPOIs("leisure", ft, 250));
-		b.add(countPOIs("shop", ft));
-		b.add(countPOIs("shop", ft, 250));
-		b.add(countPOIs("dining", ft));
-		b.add(countPOIs("dining", ft, 250));
+		int[] pois = countPOIs(ft);
+		int[] poisNearby = countPOIs(ft, pois, 250);
+
+		for (int i = 0; i < POI_TYPES.size(); i++) {
+			b.add(pois[i]);
+			b.add(poisNearby[i]);
+		}
 
 		for (int i = 0; i < types.size(); i++) {
 			b.add(ft.bits.get(i));
@@ -119,9 +177,26 @@ final class FacilityFeatureExtractor {
 	/**
 	 * Calculate the area of landuse within a given radius.
 	 */
-	@SuppressWarnings("unchecked")
 	private double calcLanduse(String type, MultiPolygon geometry, double radius) {
 
+		LanduseRaster raster = rasters.get(type);
+		double res = raster != null ? calcLanduseRaster(raster, geometry, radius) : calcLanduseExact(type, geometry, radius);
+
+		// convert to square kilometers
+		return BigDecimal.valueOf(res / 1_000_000).setScale(4, RoundingMode.HALF_EVEN).doubleValue();
+	}
+
+	private static double calcLanduseRaster(LanduseRaster raster, MultiPolygon geometry, double radius) {
+		Point centroid = geometry.getCentroid();
+		return raster.queryCircle(centroid.getX(), centroid.getY(), radius);
+	}
+
+	/**
+	 * Area of landuse within a given radius, computed by intersecting with all landuse polygons.
+	 */
+	@SuppressWarnings("unchecked")
+	private double calcLanduseExact(String type, MultiPolygon geometry, double radius) {
+
 		Geometry bbox = geometry.getCentroid().buffer(radius);
 
 		double res = 0;
@@ -137,48 +212,164 @@ final class FacilityFeatureExtractor {
 			}
 		}
 
-		// convert to square kilometers
-		return BigDecimal.valueOf(res / 1_000_000).setScale(4, RoundingMode.HALF_EVEN).doubleValue();
+		return res;
 	}
 
-	private int countPOIs(String type, Feature ft) {
+	/**
+	 * Compare rasterized landuse areas with exact intersections for a sample of features and log the deviation.
+	 */
+	void logLanduseAccuracy(List<Feature> sample) {
 
-		int count = 0;
-		int typeIndex = types.getInt(type);
+		if (rasters.isEmpty() || sample.isEmpty())
+			return;
 
-		if (ft.bits.get(typeIndex)) {
-			count++;
+		for (String type : LANDUSE_TYPES) {
+			for (double radius : new double[]{500, 1500}) {
+
+				double absError = 0;
+				double exactTotal = 0;
+				for (Feature ft : sample) {
+					double exact = calcLanduseExact(type, ft.geometry, radius);
+					double approx = calcLanduseRaster(rasters.get(type), ft.geometry, radius);
+					absError += Math.abs(exact - approx);
+					exactTotal += exact;
+				}
+
+				log.info("Landuse {} within {}m: mean absolute error {} m², relative error {}%",
+					type, radius, absError / sample.size(), exactTotal > 0 ? 100 * absError / exactTotal : 0);
+			}
 		}
-		if (ft.members != null) {
-			for (Feature m : ft.members) {
-				if (m.bits.get(typeIndex)) {
-					count++;
+	}
+
+	/**
+	 * Count POIs of each type of {@link #POI_TYPES} within the feature and its members.
+	 */
+	private int[] countPOIs(Feature ft) {
+
+		int[] counts = new int[POI_TYPES.size()];
+		for (int i = 0; i < counts.length; i++) {
+			int typeIndex = types.getInt(POI_TYPES.get(i));
+
+			if (ft.bits.get(typeIndex)) {
+				counts[i]++;
+			}
+			if (ft.members != null) {
+				for (Feature m : ft.members) {
+					if (m.bits.get(typeIndex)) {
+						counts[i]++;
+					}
 				}
 			}
 		}
 
-		return count;
+		return counts;
 	}
 
+	/**
+	 * Count POIs of all types within a radius around the centroid of a feature, including the base counts of the feature itself.
+	 */
 	@SuppressWarnings("unchecked")
-	private int countPOIs(String type, Feature ft, double radius) {
+	private int[] countPOIs(Feature ft, int[] base, double radius) {
 
-		// Base count
-		int count = countPOIs(type, ft);
+		int[] counts = base.clone();
 
-		Geometry bbox = ft.geometry.getCentroid().buffer(radius);
+		Point centroid = ft.geometry.getCentroid();
+		Envelope env = new Envelope(centroid.getCoordinate());
+		env.expandBy(radius);
 
-		Iterable<Feature> query = entities.query(bbox.getEnvelopeInternal());
-		for (Feature q : query) {
-			try {
-				if (q.geometry.distance(ft.geometry.getCentroid()) < radius && q != ft && !q.geomIssues) {
-					count += countPOIs(type, q);
+		List<PoiCounts> query = getPoiIndex().query(env);
+		for (PoiCounts q : query) {
+
+			if (q.feature == ft || q.feature.geomIssues)
+				continue;
+
+			if (isWithin(q, centroid, radius)) {
+				for (int i = 0; i < counts.length; i++) {
+					counts[i] += q.counts[i];
+				}
+			}
+		}
+
+		return counts;
+	}
+
+	/**
+	 * Check if the geometry of an entry is closer than radius to a point. Uses bounds on the distance before computing it exactly.
+	 */
+	private static boolean isWithin(PoiCounts q, Point p, double radius) {
+
+		double d = Math.hypot(q.x - p.getX(), q.y - p.getY());
+
+		// Distance to the geometry is at most the distance to the contained centroid
+		if (q.centroidInside && d < radius)
+			return true;
+
+		// No point of the geometry can be closer than this
+		if (d - q.extent >= radius)
+			return false;
+
+		try {
+			return q.feature.geometry.distance(p) < radius;
+		} catch (TopologyException e) {
+			q.feature.geomIssues = true;
+			return false;
+		}
+	}
+
+	private STRtree getPoiIndex() {
+		STRtree index = poiIndex;
+		if (index == null) {
+			synchronized (this) {
+				index = poiIndex;
+				if (index == null) {
+					index = createPoiIndex();
+					poiIndex = index;
 				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Index of all entities that contain at least one POI.
+	 */
+	private STRtree createPoiIndex() {
+
+		STRtree index = new STRtree();
+		for (Feature ft : entityFeatures) {
+			int[] counts = countPOIs(ft);
+			if (Arrays.stream(counts).allMatch(c -> c == 0))
+				continue;
+
+			Point centroid = ft.geometry.getCentroid();
+			Envelope env = ft.geometry.getEnvelopeInternal();
+
+			double extent = 0;
+			for (Coordinate c : new Coordinate[]{
+				new Coordinate(env.getMinX(), env.getMinY()), new Coordinate(env.getMinX(), env.getMaxY()),
+				new Coordinate(env.getMaxX(), env.getMinY()), new Coordinate(env.getMaxX(), env.getMaxY())}) {
+				extent = Math.max(extent, c.distance(centroid.getCoordinate()));
+			}
+
+			boolean inside;
+			try {
+				inside = ft.geometry.contains(centroid);
 			} catch (TopologyException e) {
-				q.geomIssues = true;
+				inside = false;
 			}
+
+			index.insert(env, new PoiCounts(ft, centroid.getX(), centroid.getY(), extent, inside, counts));
 		}
 
-		return count;
+		index.build();
+		return index;
+	}
+
+	/**
+	 * POI counts of one feature.
+	 *
+	 * @param extent upper bound of the distance between centroid and any point of the geometry
+	 */
+	private record PoiCounts(Feature feature, double x, double y, double extent, boolean centroidInside, int[] counts) {
 	}
 }
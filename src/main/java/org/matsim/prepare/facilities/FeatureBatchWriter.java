@@ -0,0 +1,139 @@
+package org.matsim.prepare.facilities;
+
+import org.geotools.api.data.SimpleFeatureStore;
+import org.geotools.api.data.Transaction;
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.data.DefaultTransaction;
+import org.geotools.data.collection.ListFeatureCollection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes batches of features to a feature store in a separate thread.
+ * The number of pending batches is bounded, so producers are blocked if writing is slower than feature creation.
+ * <p>
+ * All features are written in one transaction, which is only committed by {@link #finish()}.
+ * If the writer is closed without finishing, e.g. because the producer failed, or if writing fails, the transaction is rolled back.
+ */
+final class FeatureBatchWriter implements AutoCloseable {
+
+	/**
+	 * Marks the end of the queue, the transaction will be committed.
+	 */
+	private static final List<SimpleFeature> END = new ArrayList<>();
+
+	/**
+	 * Marks the end of the queue, the transaction will be rolled back.
+	 */
+	private static final List<SimpleFeature> ABORT = new ArrayList<>();
+
+	private final SimpleFeatureStore store;
+	private final SimpleFeatureType featureType;
+	private final BlockingQueue<List<SimpleFeature>> queue;
+	private final Thread thread;
+
+	private volatile Exception error;
+	private int written;
+	private boolean finished;
+
+	FeatureBatchWriter(SimpleFeatureStore store, SimpleFeatureType featureType, int maxPendingBatches) {
+		this.store = store;
+		this.featureType = featureType;
+		this.queue = new ArrayBlockingQueue<>(maxPendingBatches);
+		this.thread = new Thread(this::run, "feature-writer");
+		this.thread.start();
+	}
+
+	private void run() {
+
+		try (Transaction transaction = new DefaultTransaction("create")) {
+			store.setTransaction(transaction);
+
+			try {
+				while (true) {
+					List<SimpleFeature> batch = queue.take();
+					if (batch == END) {
+						transaction.commit();
+						break;
+					} else if (batch == ABORT) {
+						transaction.rollback();
+						break;
+					}
+
+					store.addFeatures(new ListFeatureCollection(featureType, batch));
+					written += batch.size();
+				}
+			} catch (Exception e) {
+				transaction.rollback();
+				throw e;
+			}
+
+		} catch (Exception e) {
+			error = e;
+		}
+	}
+
+	/**
+	 * Queue a batch of features for writing. Blocks if too many batches are pending.
+	 */
+	void add(List<SimpleFeature> batch) throws IOException, InterruptedException {
+		if (batch.isEmpty())
+			return;
+
+		enqueue(batch);
+	}
+
+	/**
+	 * Put into the queue, but stop waiting if the writer failed.
+	 */
+	private void enqueue(List<SimpleFeature> batch) throws IOException, InterruptedException {
+		while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+			checkError();
+		}
+		checkError();
+	}
+
+	/**
+	 * Number of written features, only valid after finishing.
+	 */
+	int getWritten() {
+		return written;
+	}
+
+	private void checkError() throws IOException {
+		if (error != null)
+			throw new IOException("Error writing features", error);
+	}
+
+	/**
+	 * Wait until all features have been written and commit them.
+	 */
+	void finish() throws IOException, InterruptedException {
+		stop(END);
+		finished = true;
+	}
+
+	/**
+	 * Discard all features if the writer has not been finished.
+	 */
+	@Override
+	public void close() throws IOException, InterruptedException {
+		if (!finished)
+			stop(ABORT);
+	}
+
+	private void stop(List<SimpleFeature> marker) throws IOException, InterruptedException {
+		while (thread.isAlive() && !queue.offer(marker, 1, TimeUnit.SECONDS)) {
+			// wait until the writer has capacity or terminated
+		}
+
+		thread.join();
+		checkError();
+	}
+}
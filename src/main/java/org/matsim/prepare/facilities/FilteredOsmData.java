@@ -0,0 +1,230 @@
+package org.matsim.prepare.facilities;
+
+import de.topobyte.osm4j.core.model.iface.*;
+import de.topobyte.osm4j.core.model.impl.Node;
+import de.topobyte.osm4j.core.resolve.EntityNotFoundException;
+import de.topobyte.osm4j.core.resolve.OsmEntityProvider;
+import de.topobyte.osm4j.pbf.seq.PbfIterator;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Holds only the parts of an OSM file that are needed to build geometries of relevant entities.
+ * The file is streamed several times, first to find relevant relations and their child relations, then ways and lastly the required node coordinates.
+ * Nodes that are referenced but not contained in the file, e.g. in clipped extracts, can not be resolved, the same as with the whole data set.
+ * Node coordinates are stored in primitive arrays, which needs much less memory than loading the whole data set.
+ */
+final class FilteredOsmData implements OsmEntityProvider {
+
+	private static final Logger log = LogManager.getLogger(FilteredOsmData.class);
+
+	/**
+	 * Coordinates are stored as fixed point numbers, this is the same precision as the pbf format uses.
+	 */
+	private static final double PRECISION = 1e7;
+
+	private final List<OsmNode> nodes = new ArrayList<>();
+	private final Long2ObjectMap<OsmWay> ways = new Long2ObjectLinkedOpenHashMap<>();
+	private final Long2ObjectMap<OsmRelation> relations = new Long2ObjectLinkedOpenHashMap<>();
+
+	/**
+	 * Relations that did not match the filter, but are members of relevant relations.
+	 */
+	private final Long2ObjectMap<OsmRelation> childRelations = new Long2ObjectOpenHashMap<>();
+
+	/**
+	 * Sorted ids of all stored node coordinates.
+	 */
+	private long[] nodeIds;
+	private int[] lon;
+	private int[] lat;
+
+	/**
+	 * Whether the node at the same index in {@link #nodeIds} was present in the file.
+	 */
+	private final BitSet found = new BitSet();
+
+	private FilteredOsmData() {
+	}
+
+	/**
+	 * Read all entities matching the filter and additionally all ways and nodes needed to build their geometries.
+	 */
+	static FilteredOsmData read(Path pbf, Predicate<OsmEntity> filter) throws IOException {
+
+		FilteredOsmData data = new FilteredOsmData();
+
+		// Ways and relations that are members of relevant relations
+		LongSet memberWays = new LongOpenHashSet();
+		LongSet memberRelations = new LongOpenHashSet();
+
+		scan(pbf, c -> {
+			if (c.getType() != EntityType.Relation || !filter.test(c.getEntity()))
+				return;
+
+			OsmRelation relation = (OsmRelation) c.getEntity();
+			data.relations.put(relation.getId(), relation);
+			addMembers(relation, memberWays, memberRelations);
+		});
+
+		// Child relations are resolved level by level, as they may appear anywhere in the file
+		LongSet missing = memberRelations;
+		missing.removeAll(data.relations.keySet());
+		while (!missing.isEmpty()) {
+
+			LongSet current = missing;
+			LongSet next = new LongOpenHashSet();
+
+			scan(pbf, c -> {
+				if (c.getType() != EntityType.Relation || !current.contains(c.getEntity().getId()))
+					return;
+
+				OsmRelation relation = (OsmRelation) c.getEntity();
+				data.childRelations.put(relation.getId(), relation);
+				addMembers(relation, memberWays, next);
+			});
+
+			next.removeAll(data.relations.keySet());
+			next.removeAll(data.childRelations.keySet());
+			missing = next;
+		}
+
+		log.info("Found {} relations and {} child relations, referencing {} ways", data.relations.size(),
+			data.childRelations.size(), memberWays.size());
+
+		LongSet requiredNodes = new LongOpenHashSet();
+
+		scan(pbf, c -> {
+			if (c.getType() != EntityType.Way)
+				return;
+
+			OsmWay way = (OsmWay) c.getEntity();
+			if (!memberWays.contains(way.getId()) && !filter.test(way))
+				return;
+
+			data.ways.put(way.getId(), way);
+			for (int i = 0; i < way.getNumberOfNodes(); i++) {
+				requiredNodes.add(way.getNodeId(i));
+			}
+		});
+
+		log.info("Found {} ways, referencing {} nodes", data.ways.size(), requiredNodes.size());
+
+		data.nodeIds = requiredNodes.toLongArray();
+		Arrays.sort(data.nodeIds);
+		data.lon = new int[data.nodeIds.length];
+		data.lat = new int[data.nodeIds.length];
+
+		scan(pbf, c -> {
+			if (c.getType() != EntityType.Node)
+				return;
+
+			OsmNode node = (OsmNode) c.getEntity();
+
+			int idx = Arrays.binarySearch(data.nodeIds, node.getId());
+			if (idx >= 0) {
+				data.found.set(idx);
+				data.lon[idx] = (int) Math.round(node.getLongitude() * PRECISION);
+				data.lat[idx] = (int) Math.round(node.getLatitude() * PRECISION);
+			}
+
+			if (filter.test(node))
+				data.nodes.add(node);
+		});
+
+		log.info("Found {} relevant nodes, {} required nodes are missing in the file", data.nodes.size(),
+			data.nodeIds.length - data.found.cardinality());
+
+		return data;
+	}
+
+	private static void addMembers(OsmRelation relation, LongSet ways, LongSet relations) {
+		for (int i = 0; i < relation.getNumberOfMembers(); i++) {
+			OsmRelationMember m = relation.getMember(i);
+			if (m.getType() == EntityType.Way)
+				ways.add(m.getId());
+			else if (m.getType() == EntityType.Relation)
+				relations.add(m.getId());
+		}
+	}
+
+	/**
+	 * Stream through all entities of the file, metadata is not read.
+	 */
+	private static void scan(Path pbf, Consumer<EntityContainer> consumer) throws IOException {
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(pbf))) {
+			PbfIterator it = new PbfIterator(in, false);
+			while (it.hasNext()) {
+				consumer.accept(it.next());
+			}
+		}
+	}
+
+	/**
+	 * Nodes that matched the filter.
+	 */
+	Collection<OsmNode> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * All stored ways, may include ways that did not match the filter but are needed by relations.
+	 */
+	Collection<OsmWay> getWays() {
+		return ways.values();
+	}
+
+	/**
+	 * Relations that matched the filter.
+	 */
+	Collection<OsmRelation> getRelations() {
+		return relations.values();
+	}
+
+	@Override
+	public OsmNode getNode(long id) throws EntityNotFoundException {
+		int idx = Arrays.binarySearch(nodeIds, id);
+		if (idx < 0 || !found.get(idx))
+			throw new EntityNotFoundException("Node " + id + " not found");
+
+		return new Node(id, lon[idx] / PRECISION, lat[idx] / PRECISION);
+	}
+
+	@Override
+	public OsmWay getWay(long id) throws EntityNotFoundException {
+		OsmWay way = ways.get(id);
+		if (way == null)
+			throw new EntityNotFoundException("Way " + id + " not found");
+
+		return way;
+	}
+
+	@Override
+	public OsmRelation getRelation(long id) throws EntityNotFoundException {
+		OsmRelation relation = relations.get(id);
+		if (relation == null)
+			relation = childRelations.get(id);
+		if (relation == null)
+			throw new EntityNotFoundException("Relation " + id + " not found");
+
+		return relation;
+	}
+}
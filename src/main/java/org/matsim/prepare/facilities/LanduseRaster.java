@@ -0,0 +1,139 @@
+package org.matsim.prepare.facilities;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Location;
+
+import java.util.Collection;
+
+/**
+ * Rasterized landuse area of one type. A cell is counted as covered if its center lies within a landuse polygon.
+ * Cells are organized in sparse tiles, each row within a tile stores prefix sums.
+ * Area within a circle can then be computed with one lookup per row of cells.
+ */
+final class LanduseRaster {
+
+	private static final int TILE_BITS = 8;
+	private static final int TILE_SIZE = 1 << TILE_BITS;
+
+	private final double resolution;
+	private final double minX;
+	private final double minY;
+
+	/**
+	 * Maps tile index to covered cell counts, stored row by row.
+	 */
+	private final Long2ObjectMap<int[]> tiles = new Long2ObjectOpenHashMap<>();
+
+	private LanduseRaster(double resolution, double minX, double minY) {
+		this.resolution = resolution;
+		this.minX = minX;
+		this.minY = minY;
+	}
+
+	/**
+	 * Rasterize given polygons with the cell size in meter.
+	 */
+	static LanduseRaster create(Collection<? extends Geometry> geometries, double resolution) {
+
+		Envelope extent = new Envelope();
+		geometries.forEach(g -> extent.expandToInclude(g.getEnvelopeInternal()));
+
+		LanduseRaster raster = new LanduseRaster(resolution, extent.getMinX(), extent.getMinY());
+
+		for (Geometry g : geometries) {
+			raster.add(g);
+		}
+
+		// convert counts to prefix sums
+		for (int[] tile : raster.tiles.values()) {
+			for (int row = 0; row < TILE_SIZE; row++) {
+				int offset = row * TILE_SIZE;
+				for (int col = 1; col < TILE_SIZE; col++) {
+					tile[offset + col] += tile[offset + col - 1];
+				}
+			}
+		}
+
+		return raster;
+	}
+
+	private static long tileKey(int tx, int ty) {
+		return ((long) tx << 32) | (ty & 0xFFFFFFFFL);
+	}
+
+	private void add(Geometry geometry) {
+
+		IndexedPointInAreaLocator locator = new IndexedPointInAreaLocator(geometry);
+		Envelope env = geometry.getEnvelopeInternal();
+
+		int c0 = (int) Math.floor((env.getMinX() - minX) / resolution);
+		int c1 = (int) Math.floor((env.getMaxX() - minX) / resolution);
+		int r0 = (int) Math.floor((env.getMinY() - minY) / resolution);
+		int r1 = (int) Math.floor((env.getMaxY() - minY) / resolution);
+
+		Coordinate coord = new Coordinate();
+
+		for (int r = r0; r <= r1; r++) {
+			coord.y = minY + (r + 0.5) * resolution;
+			for (int c = c0; c <= c1; c++) {
+				coord.x = minX + (c + 0.5) * resolution;
+
+				if (locator.locate(coord) == Location.EXTERIOR)
+					continue;
+
+				int[] tile = tiles.computeIfAbsent(tileKey(c >> TILE_BITS, r >> TILE_BITS), k -> new int[TILE_SIZE * TILE_SIZE]);
+				tile[(r & (TILE_SIZE - 1)) * TILE_SIZE + (c & (TILE_SIZE - 1))]++;
+			}
+		}
+	}
+
+	/**
+	 * Covered area in square meter within a circle.
+	 */
+	double queryCircle(double x, double y, double radius) {
+
+		long cells = 0;
+
+		int r0 = (int) Math.floor((y - radius - minY) / resolution);
+		int r1 = (int) Math.floor((y + radius - minY) / resolution);
+
+		for (int r = r0; r <= r1; r++) {
+
+			double dy = minY + (r + 0.5) * resolution - y;
+			if (Math.abs(dy) > radius)
+				continue;
+
+			double half = Math.sqrt(radius * radius - dy * dy);
+
+			// columns with centers inside the circle
+			int c0 = (int) Math.ceil((x - half - minX) / resolution - 0.5);
+			int c1 = (int) Math.floor((x + half - minX) / resolution - 0.5);
+
+			if (c1 < c0)
+				continue;
+
+			int ty = r >> TILE_BITS;
+			int offset = (r & (TILE_SIZE - 1)) * TILE_SIZE;
+
+			for (int tx = c0 >> TILE_BITS; tx <= c1 >> TILE_BITS; tx++) {
+
+				int[] tile = tiles.get(tileKey(tx, ty));
+				if (tile == null)
+					continue;
+
+				int start = Math.max(c0, tx << TILE_BITS) & (TILE_SIZE - 1);
+				int end = Math.min(c1, (tx << TILE_BITS) + TILE_SIZE - 1) & (TILE_SIZE - 1);
+
+				cells += tile[offset + end] - (start > 0 ? tile[offset + start - 1] : 0);
+			}
+		}
+
+		return cells * resolution * resolution;
+	}
+
+}
@@ -0,0 +1,79 @@
+package org.matsim.prepare.facilities;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.strtree.ItemBoundable;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Spatial index over the straight segments of links, to find the nearest link for coordinates.
+ * Distances are computed exactly between point and segment, same as in {@link org.matsim.core.network.NetworkUtils#getNearestLinkExactly(Network, Coord)}.
+ * The index is immutable after creation and can be queried from multiple threads.
+ */
+public final class LinkSegmentIndex {
+
+	private final STRtree index = new STRtree();
+	private final int size;
+
+	/**
+	 * Create index of all links matching the filter.
+	 */
+	public LinkSegmentIndex(Network network, Predicate<Link> filter) {
+
+		int n = 0;
+		for (Link link : network.getLinks().values()) {
+			if (!filter.test(link))
+				continue;
+
+			Coord from = link.getFromNode().getCoord();
+			Coord to = link.getToNode().getCoord();
+
+			index.insert(new Envelope(from.getX(), to.getX(), from.getY(), to.getY()), link);
+			n++;
+		}
+
+		index.build();
+		size = n;
+	}
+
+	private static double distance(ItemBoundable a, ItemBoundable b) {
+		Link link = (Link) (a.getItem() instanceof Link ? a.getItem() : b.getItem());
+		Coord coord = (Coord) (a.getItem() instanceof Coord ? a.getItem() : b.getItem());
+
+		return CoordUtils.distancePointLinesegment(link.getFromNode().getCoord(), link.getToNode().getCoord(), coord);
+	}
+
+	/**
+	 * Number of indexed links.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Find the link with the smallest distance to the coordinate.
+	 *
+	 * @return null if no link is indexed
+	 */
+	public Link nearest(Coord coord) {
+		if (size == 0)
+			return null;
+
+		Envelope env = new Envelope(coord.getX(), coord.getX(), coord.getY(), coord.getY());
+		return (Link) index.nearestNeighbour(env, coord, LinkSegmentIndex::distance);
+	}
+
+	/**
+	 * Find the nearest link for each of the given coordinates.
+	 */
+	public List<Link> nearest(List<Coord> coords) {
+		return coords.stream().map(this::nearest).toList();
+	}
+
+}
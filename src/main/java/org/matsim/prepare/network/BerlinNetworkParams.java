@@ -2,9 +2,21 @@ package org.matsim.prepare.network;
 
 import org.matsim.application.prepare.Predictor;
 import org.matsim.application.prepare.network.params.NetworkModel;
+import org.matsim.prepare.TreeEnsemble;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 @SuppressWarnings("unused")
 public class BerlinNetworkParams implements NetworkModel {
+
+	/**
+	 * Converted models, loaded on first use.
+	 */
+	private static final Map<Class<?>, TreeEnsemble> MODELS = new ConcurrentHashMap<>();
+
 	@Override
 	public Predictor capacity(String junctionType, String highwayType) {
 		return switch (junctionType) {
@@ -24,4 +36,78 @@ public class BerlinNetworkParams implements NetworkModel {
 			default -> throw new IllegalArgumentException("Unknown type: " + junctionType);
 		};
 	}
+
+	private static TreeEnsemble model(Class<?> model) {
+		return MODELS.computeIfAbsent(model, TreeEnsemble::load);
+	}
+
+	private static TreeEnsemble capacityModel(String junctionType) {
+		return model(switch (junctionType) {
+			case "traffic_light" -> BerlinNetworkParams_capacity_traffic_light.class;
+			case "right_before_left" -> BerlinNetworkParams_capacity_right_before_left.class;
+			case "priority" -> BerlinNetworkParams_capacity_priority.class;
+			default -> throw new IllegalArgumentException("Unknown type: " + junctionType);
+		});
+	}
+
+	private static TreeEnsemble speedFactorModel(String junctionType) {
+		return model(switch (junctionType) {
+			case "traffic_light" -> BerlinNetworkParams_speedRelative_traffic_light.class;
+			case "right_before_left" -> BerlinNetworkParams_speedRelative_right_before_left.class;
+			case "priority" -> BerlinNetworkParams_speedRelative_priority.class;
+			default -> throw new IllegalArgumentException("Unknown type: " + junctionType);
+		});
+	}
+
+	/**
+	 * Feature names of the capacity model, in the column order expected by {@link #capacity(String, double[][], int, double[])}.
+	 */
+	public List<String> capacityFeatures(String junctionType) {
+		return capacityModel(junctionType).getFeatures();
+	}
+
+	/**
+	 * Feature names of the speed factor model, in the column order expected by {@link #speedFactor(String, double[][], int, double[])}.
+	 */
+	public List<String> speedFactorFeatures(String junctionType) {
+		return speedFactorModel(junctionType).getFeatures();
+	}
+
+	/**
+	 * Predict the capacity of all links with the same junction type at once.
+	 * Results are the same as with {@link #capacity(String, String)}, but no feature maps need to be created.
+	 *
+	 * @param features feature matrix, with one column of length at least <code>n</code> per entry of {@link #capacityFeatures(String)}
+	 * @param n        number of links
+	 * @param result   array to write the capacity of each link into
+	 */
+	public void capacity(String junctionType, double[][] features, int n, double[] result) {
+
+		TreeEnsemble model = capacityModel(junctionType);
+		model.predict(features, n, model.getDefaultParams(), result);
+
+		// Same scaling of major roads as in the traffic light model
+		if (junctionType.equals("traffic_light")) {
+			List<String> names = model.getFeatures();
+			double[] primary = features[names.indexOf("is_primary_or_higher")];
+			double[] secondary = features[names.indexOf("is_secondary_or_higher")];
+
+			IntStream.range(0, n).parallel().forEach(i -> {
+				if (primary[i] == 1)
+					result[i] *= 1.5;
+				else if (secondary[i] == 1)
+					result[i] *= 1.3;
+			});
+		}
+	}
+
+	/**
+	 * Predict the speed factor of all links with the same junction type at once.
+	 *
+	 * @see #capacity(String, double[][], int, double[])
+	 */
+	public void speedFactor(String junctionType, double[][] features, int n, double[] result) {
+		TreeEnsemble model = speedFactorModel(junctionType);
+		model.predict(features, n, model.getDefaultParams(), result);
+	}
 }
@@ -0,0 +1,229 @@
+package org.matsim.prepare.population;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.application.options.CsvOptions;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Column oriented, pre-parsed storage of the survey activity table.
+ * Activities of one person are stored consecutively, the range of each person is given by an offset array.
+ * Activity types and leg modes are stored as codes into a shared table of names.
+ */
+public final class ActivityTable {
+
+	private static final Logger log = LogManager.getLogger(ActivityTable.class);
+	private static final CsvOptions csv = new CsvOptions(CSVFormat.Predefined.Default);
+
+	/**
+	 * Maps person id to person index.
+	 */
+	private final Object2IntMap<String> persons = new Object2IntOpenHashMap<>();
+
+	/**
+	 * Index of the first activity of each person, has one additional entry at the end.
+	 */
+	private final int[] offsets;
+
+	private final int[] types;
+	private final int[] durations;
+	private final double[] legDurations;
+	private final double[] legDists;
+	private final int[] legModes;
+	private final String[] locations;
+	private final String[] zones;
+
+	private final List<String> typeNames;
+	private final List<String> modeNames;
+
+	private ActivityTable(Builder builder) {
+		this.persons.putAll(builder.persons);
+		this.persons.defaultReturnValue(-1);
+		this.offsets = builder.offsets.toIntArray();
+		this.types = builder.types.toIntArray();
+		this.durations = builder.durations.toIntArray();
+		this.legDurations = builder.legDurations.toDoubleArray();
+		this.legDists = builder.legDists.toDoubleArray();
+		this.legModes = builder.legModes.toIntArray();
+		this.locations = builder.locations.toArray(String[]::new);
+		this.zones = builder.zones.toArray(String[]::new);
+		this.typeNames = List.copyOf(builder.typeNames);
+		this.modeNames = List.copyOf(builder.modeNames);
+	}
+
+	/**
+	 * Read activity table from csv. Activities of the same person are expected to be consecutive.
+	 */
+	public static ActivityTable read(Path path, String idColumn) throws IOException {
+
+		Builder builder = new Builder();
+
+		try (CSVParser parser = csv.createParser(path)) {
+
+			String currentId = null;
+			for (CSVRecord r : parser) {
+
+				String pId = r.get(idColumn);
+
+				if (!Objects.equals(pId, currentId)) {
+					builder.startPerson(pId);
+					currentId = pId;
+				}
+
+				builder.add(r);
+			}
+		}
+
+		ActivityTable table = builder.build();
+
+		log.info("Read {} activities for {} persons", table.types.length, table.persons.size());
+
+		return table;
+	}
+
+	/**
+	 * Return the index of a person.
+	 *
+	 * @return -1 if the person is not known
+	 */
+	public int findPerson(String personId) {
+		return persons.getInt(personId);
+	}
+
+	/**
+	 * Number of persons in this table.
+	 */
+	public int size() {
+		return persons.size();
+	}
+
+	/**
+	 * Index of the first activity of a person.
+	 */
+	public int start(int person) {
+		return offsets[person];
+	}
+
+	/**
+	 * Index after the last activity of a person.
+	 */
+	public int end(int person) {
+		return offsets[person + 1];
+	}
+
+	/**
+	 * Number of activities of a person.
+	 */
+	public int numActivities(int person) {
+		return offsets[person + 1] - offsets[person];
+	}
+
+	public String getType(int act) {
+		return typeNames.get(types[act]);
+	}
+
+	/**
+	 * Activity duration in minutes.
+	 */
+	public int getDuration(int act) {
+		return durations[act];
+	}
+
+	/**
+	 * Duration of the leg leading to this activity in minutes.
+	 */
+	public double getLegDuration(int act) {
+		return legDurations[act];
+	}
+
+	/**
+	 * Distance of the leg leading to this activity.
+	 */
+	public double getLegDist(int act) {
+		return legDists[act];
+	}
+
+	public String getLegMode(int act) {
+		return modeNames.get(legModes[act]);
+	}
+
+	public String getLocation(int act) {
+		return locations[act];
+	}
+
+	public String getZone(int act) {
+		return zones[act];
+	}
+
+	/**
+	 * Collects the columns while reading.
+	 */
+	private static final class Builder {
+
+		private final Object2IntMap<String> persons = new Object2IntOpenHashMap<>();
+		private final IntArrayList offsets = new IntArrayList();
+
+		private final IntArrayList types = new IntArrayList();
+		private final IntArrayList durations = new IntArrayList();
+		private final DoubleArrayList legDurations = new DoubleArrayList();
+		private final DoubleArrayList legDists = new DoubleArrayList();
+		private final IntArrayList legModes = new IntArrayList();
+		private final List<String> locations = new ArrayList<>();
+		private final List<String> zones = new ArrayList<>();
+
+		private final List<String> typeNames = new ArrayList<>();
+		private final Object2IntMap<String> typeCodes = new Object2IntOpenHashMap<>();
+		private final List<String> modeNames = new ArrayList<>();
+		private final Object2IntMap<String> modeCodes = new Object2IntOpenHashMap<>();
+
+		/**
+		 * Used to share equal location and zone strings.
+		 */
+		private final Map<String, String> strings = new HashMap<>();
+
+		private void startPerson(String personId) {
+			// Same as with a map, later entries replace earlier ones
+			persons.put(personId, offsets.size());
+			offsets.add(types.size());
+		}
+
+		private void add(CSVRecord r) {
+			types.add(code(r.get("type"), typeNames, typeCodes));
+			durations.add(Integer.parseInt(r.get("duration")));
+			legDurations.add(Double.parseDouble(r.get("leg_duration")));
+			legDists.add(Double.parseDouble(r.get("leg_dist")));
+			legModes.add(code(r.get("leg_mode"), modeNames, modeCodes));
+			locations.add(strings.computeIfAbsent(r.get("location"), k -> k));
+			zones.add(strings.computeIfAbsent(r.get("zone"), k -> k));
+		}
+
+		private static int code(String value, List<String> names, Object2IntMap<String> codes) {
+			if (codes.containsKey(value))
+				return codes.getInt(value);
+
+			int code = names.size();
+			names.add(value);
+			codes.put(value, code);
+			return code;
+		}
+
+		private ActivityTable build() {
+			offsets.add(types.size());
+			return new ActivityTable(this);
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.matsim.prepare.population;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import me.tongfei.progressbar.ProgressBar;
 import org.apache.commons.csv.CSVRecord;
@@ -19,9 +20,14 @@ import picocli.CommandLine;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 @CommandLine.Command(
@@ -51,6 +57,12 @@ public class AssignReferencePopulation implements MATSimAppCommand {
 	@CommandLine.Option(names = "--output", description = "Output population path.", required = true)
 	private Path output;
 
+	@CommandLine.Option(names = "--seed", description = "Seed used to sample persons and locations", defaultValue = "0")
+	private long seed;
+
+	@CommandLine.Option(names = "--threads", description = "Number of threads used to process zones. Results do not depend on this number.", defaultValue = "1")
+	private int threads;
+
 	@CommandLine.Mixin
 	private ShpOptions shp;
 
@@ -77,7 +89,6 @@ public class AssignReferencePopulation implements MATSimAppCommand {
 
 		Population population = PopulationUtils.readPopulation(populationPath);
 
-		SplittableRandom rnd = new SplittableRandom(0);
 		persons = new PersonMatcher("idx", personsPath);
 		facilities = new FacilityIndex(facilityPath.toString());
 
@@ -90,11 +101,11 @@ public class AssignReferencePopulation implements MATSimAppCommand {
 			list.removeIf(p -> TripStructureUtils.getLegs(p.getSelectedPlan()).isEmpty());
 		}
 
-		RunActivitySampling sampling = new RunActivitySampling(persons, planBuilder.getActivities(), population.getFactory(), 1);
+		RunActivitySampling sampling = new RunActivitySampling(persons, planBuilder.getActivities(), population.getFactory(), seed);
 
-		int i = 0;
-		outer:
-		for (Map.Entry<String, CSVRecord> e : ProgressBar.wrap(persons, "Assigning reference population")) {
+		// Reference persons are grouped by home zone, each zone is processed independently
+		Long2ObjectMap<List<Map.Entry<String, CSVRecord>>> byZone = new Long2ObjectLinkedOpenHashMap<>();
+		for (Map.Entry<String, CSVRecord> e : persons) {
 
 			CSVRecord p = e.getValue();
 			if (!p.get("seq").equals("0"))
@@ -105,20 +116,68 @@ public class AssignReferencePopulation implements MATSimAppCommand {
 
 			long zone = planBuilder.findHomeZone(e.getKey());
 
-			// No home zone known
-			if (zone < 0)
+			// No home zone known or no persons living there
+			if (zone < 0 || !homeIndex.containsKey(zone))
 				continue;
 
-			List<Person> refPersons = homeIndex.get(zone);
+			byZone.computeIfAbsent(zone, k -> new ArrayList<>()).add(e);
+		}
 
-			if (refPersons == null)
-				continue;
+		int total = byZone.values().stream().mapToInt(List::size).sum();
+		AtomicInteger assigned = new AtomicInteger();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> futures = new ArrayList<>();
 
+		try (ProgressBar pb = new ProgressBar("Assigning reference population", total)) {
+
+			for (Long2ObjectMap.Entry<List<Map.Entry<String, CSVRecord>>> e : byZone.long2ObjectEntrySet()) {
+				long zone = e.getLongKey();
+				futures.add(executor.submit(() -> {
+					int n = assignZone(zone, e.getValue(), homeIndex.get(zone), planBuilder, sampling, pb);
+					assigned.addAndGet(n);
+				}));
+			}
+
+			for (Future<?> f : futures) {
+				f.get();
+			}
+
+		} finally {
+			executor.shutdown();
+		}
+
+		int i = assigned.get();
+
+		log.info("Assigned {}/{} reference persons", i, population.getPersons().size());
+
+		PopulationUtils.writePopulation(population, output.toString());
+
+		return 0;
+	}
+
+	/**
+	 * Assign reference persons of one zone to persons living there.
+	 * The random number generator is derived from the zone, which makes results independent of processing order and number of threads.
+	 *
+	 * @return number of assigned persons
+	 */
+	private int assignZone(long zone, List<Map.Entry<String, CSVRecord>> entries, List<Person> refPersons,
+						   PlanBuilder planBuilder, RunActivitySampling sampling, ProgressBar pb) {
+
+		SplittableRandom rnd = new SplittableRandom(seed * 31 + zone);
+
+		int i = 0;
+		outer:
+		for (Map.Entry<String, CSVRecord> e : entries) {
+
+			pb.step();
+			CSVRecord p = e.getValue();
 
 			// try matching several persons in case it fails
 			for (int j = 0; j < 10; j++) {
 
-				Person person = persons.matchEntry(e.getValue(), refPersons, rnd);
+				Person person = persons.matchEntry(p, refPersons, rnd);
 
 				// No persons matched
 				if (person == null)
@@ -126,9 +185,9 @@ public class AssignReferencePopulation implements MATSimAppCommand {
 
 				// Create the base daily plan (without locations)
 				Coord homeCoord = Attributes.getHomeCoord(person);
-				Plan plan = sampling.createPlan(homeCoord, e.getKey());
+				Plan plan = sampling.createPlan(homeCoord, e.getKey(), rnd);
 
-				boolean success = planBuilder.assignLocationsFromZones(e.getKey(), plan, homeCoord);
+				boolean success = planBuilder.assignLocationsFromZones(e.getKey(), plan, homeCoord, rnd);
 
 				if (success) {
 					sampling.copyAttributes(p, person);
@@ -149,10 +208,6 @@ public class AssignReferencePopulation implements MATSimAppCommand {
 			}
 		}
 
-		log.info("Assigned {}/{} reference persons", i, population.getPersons().size());
-
-		PopulationUtils.writePopulation(population, output.toString());
-
-		return 0;
+		return i;
 	}
 }
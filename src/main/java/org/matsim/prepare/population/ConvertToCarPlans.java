@@ -0,0 +1,119 @@
+package org.matsim.prepare.population;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.IdMap;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.*;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.algorithms.PersonAlgorithm;
+import org.matsim.core.router.DefaultAnalysisMainModeIdentifier;
+import org.matsim.core.router.MainModeIdentifier;
+import org.matsim.core.router.StageActivityTypeIdentifier;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.facilities.ActivityFacility;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Converts all trips of all plans to car, except short walk and bike trips. Trips below the distance threshold are converted to walk.
+ * Freight and truck trips are kept as they are.
+ * <p>
+ * Coordinates of facilities and links are resolved once on creation, so that the algorithm can be run in parallel without further map lookups.
+ */
+public final class ConvertToCarPlans implements PersonAlgorithm {
+
+	/**
+	 * Trips up to this beeline distance are walked.
+	 */
+	private static final double WALK_DISTANCE = 350;
+
+	private final MainModeIdentifier mmi = new DefaultAnalysisMainModeIdentifier();
+
+	private final IdMap<ActivityFacility, Coord> facilities = new IdMap<>(ActivityFacility.class);
+	private final IdMap<Link, Coord> links = new IdMap<>(Link.class);
+
+	public ConvertToCarPlans(Scenario scenario) {
+		scenario.getActivityFacilities().getFacilities().forEach((id, f) -> facilities.put(id, f.getCoord()));
+		scenario.getNetwork().getLinks().forEach((id, l) -> links.put(id, l.getCoord()));
+	}
+
+	@Override
+	public void run(Person person) {
+		for (Plan plan : person.getPlans()) {
+			convert(plan.getPlanElements());
+		}
+	}
+
+	private void convert(List<PlanElement> planElements) {
+
+		// Index of the last non-stage activity, which is the origin of the next trip
+		int origin = -1;
+
+		for (int i = 0; i < planElements.size(); i++) {
+
+			if (!(planElements.get(i) instanceof Activity act) || StageActivityTypeIdentifier.isStageActivity(act.getType()))
+				continue;
+
+			if (origin >= 0 && i > origin + 1) {
+				Activity originAct = (Activity) planElements.get(origin);
+				List<PlanElement> fullTrip = planElements.subList(origin + 1, i);
+
+				if (convertTrip(originAct, act, fullTrip))
+					// Trip has been replaced by a single leg
+					i = origin + 2;
+			}
+
+			origin = i;
+		}
+	}
+
+	/**
+	 * Replace the trip elements with a single leg if needed.
+	 *
+	 * @return whether the trip was changed
+	 */
+	private boolean convertTrip(Activity from, Activity to, List<PlanElement> fullTrip) {
+
+		String mode = mmi.identifyMainMode(fullTrip);
+
+		// Already car, nothing to do
+		if (Objects.equals(mode, TransportMode.car) ||
+			Objects.equals(mode, TransportMode.truck) ||
+			Objects.equals(mode, "freight"))
+			return false;
+
+		double dist = CoordUtils.calcEuclideanDistance(getCoord(from), getCoord(to));
+
+		// short bike and walk trips are not changed
+		if (dist <= WALK_DISTANCE && (Objects.equals(mode, TransportMode.walk) || Objects.equals(mode, TransportMode.bike)))
+			return false;
+
+		// rest of the trips is set to walk if below threshold, car otherwise
+		String desiredMode = dist <= WALK_DISTANCE ? TransportMode.walk : TransportMode.car;
+
+		if (Objects.equals(mode, desiredMode))
+			return false;
+
+		fullTrip.clear();
+		Leg leg = PopulationUtils.createLeg(desiredMode);
+		TripStructureUtils.setRoutingMode(leg, desiredMode);
+		fullTrip.add(leg);
+
+		return true;
+	}
+
+	private Coord getCoord(Activity act) {
+
+		if (act.getCoord() != null)
+			return act.getCoord();
+
+		if (act.getFacilityId() != null)
+			return facilities.get(act.getFacilityId());
+
+		return links.get(act.getLinkId());
+	}
+}
@@ -24,6 +24,7 @@ import org.matsim.core.scenario.ProjectionUtils;
 import org.matsim.core.utils.geometry.CoordinateTransformation;
 import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.core.utils.geometry.transformations.GeotoolsTransformation;
+import org.matsim.prepare.IdGenerator;
 import org.matsim.prepare.RunOpenBerlinCalibration;
 import org.matsim.run.OpenBerlinScenario;
 import picocli.CommandLine;
@@ -60,28 +61,13 @@ public class CreateBerlinPopulation implements MATSimAppCommand {
 	private double sample;
 	private Map<String, MultiPolygon> lors;
 	private SplittableRandom rnd;
+	private IdGenerator ids;
 	private Population population;
 
 	public static void main(String[] args) {
 		new CreateBerlinPopulation().execute(args);
 	}
 
-	/**
-	 * Generate a new unique id within population.
-	 */
-	public static Id<Person> generateId(Population population, String prefix, SplittableRandom rnd) {
-
-		Id<Person> id;
-		byte[] bytes = new byte[4];
-		do {
-			rnd.nextBytes(bytes);
-			id = Id.createPersonId(prefix + "_" + HexFormat.of().formatHex(bytes));
-
-		} while (population.getPersons().containsKey(id));
-
-		return id;
-	}
-
 	/**
 	 * Samples a home coordinates from geometry and landuse.
 	 */
@@ -119,6 +105,7 @@ public class CreateBerlinPopulation implements MATSimAppCommand {
 		List<SimpleFeature> fts = shp.readFeatures();
 
 		rnd = new SplittableRandom(0);
+		ids = new IdGenerator("berlin_", 32, 0);
 		lors = new HashMap<>();
 		population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
 
@@ -205,7 +192,7 @@ public class CreateBerlinPopulation implements MATSimAppCommand {
 
 		for (int i = 0; i < n * sample; i++) {
 
-			Person person = f.createPerson(generateId(population, "berlin", rnd));
+			Person person = f.createPerson(Id.createPersonId(ids.next()));
 			PersonUtils.setSex(person, sex.sample());
 			PopulationUtils.putSubpopulation(person, "person");
 
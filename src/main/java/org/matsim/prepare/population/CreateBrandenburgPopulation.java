@@ -10,6 +10,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.locationtech.jts.geom.MultiPolygon;
 import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Plan;
 import org.matsim.api.core.v01.population.Population;
@@ -21,6 +22,7 @@ import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.population.PersonUtils;
 import org.matsim.core.population.PopulationUtils;
 import org.matsim.core.scenario.ProjectionUtils;
+import org.matsim.prepare.IdGenerator;
 import org.matsim.run.OpenBerlinScenario;
 import org.geotools.api.feature.simple.SimpleFeature;
 import picocli.CommandLine;
@@ -35,7 +37,6 @@ import java.util.stream.IntStream;
 
 import static org.matsim.prepare.download.CalculateEmployedPopulation.Employment;
 import static org.matsim.prepare.download.CalculateEmployedPopulation.Entry;
-import static org.matsim.prepare.population.CreateBerlinPopulation.generateId;
 
 @CommandLine.Command(
 		name = "brandenburg-population",
@@ -68,6 +69,7 @@ public class CreateBrandenburgPopulation implements MATSimAppCommand {
 	private final CsvOptions csv = new CsvOptions(CSVFormat.Predefined.Default);
 
 	private SplittableRandom rnd;
+	private IdGenerator ids;
 	private Population population;
 
 	private Map<Integer, Employment> employed;
@@ -95,6 +97,7 @@ public class CreateBrandenburgPopulation implements MATSimAppCommand {
 		Set<String> found = new HashSet<>();
 
 		rnd = new SplittableRandom(0);
+		ids = new IdGenerator("bb_", 32, 0);
 		population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
 
 		try (CSVParser parser = csv.createParser(stats)) {
@@ -160,7 +163,7 @@ public class CreateBrandenburgPopulation implements MATSimAppCommand {
 
 		for (int i = 0; i < n * sample; i++) {
 
-			Person person = f.createPerson(generateId(population, "bb", rnd));
+			Person person = f.createPerson(Id.createPersonId(ids.next()));
 
 			int age = ageDist.sample();
 
@@ -1,5 +1,12 @@
 package org.matsim.prepare.population;
 
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
@@ -14,9 +21,7 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 /**
  * This class is used to read and match persons from the reference data in csv format.
@@ -28,9 +33,23 @@ public class PersonMatcher implements Iterable<Map.Entry<String, CSVRecord>> {
 	private final String idxColumn;
 
 	private final CsvOptions csv = new CsvOptions(CSVFormat.Predefined.Default);
-	private final Map<Key, List<String>> groups = new HashMap<>();
 	private final Map<String, CSVRecord> persons = new HashMap<>();
 
+	/**
+	 * Maps encoded keys to the row indices of all persons in this group.
+	 */
+	private final Int2ObjectMap<int[]> groups = new Int2ObjectOpenHashMap<>();
+
+	/**
+	 * Person ids by row index.
+	 */
+	private final List<String> ids = new ArrayList<>();
+
+	/**
+	 * Gender values are interned to small integer codes, 0 is reserved for no gender.
+	 */
+	private final Object2IntMap<String> genders = new Object2IntOpenHashMap<>();
+
 	public PersonMatcher(String idxColumn, Path personsPath) {
 		this.idxColumn = idxColumn;
 
@@ -47,19 +66,19 @@ public class PersonMatcher implements Iterable<Map.Entry<String, CSVRecord>> {
 	 */
 	public String matchPerson(Person person, SplittableRandom rnd) {
 
-		Key key = createKey(person);
+		int key = createKey(person);
 
-		List<String> subgroup = groups.get(key);
+		int[] subgroup = key >= 0 ? groups.get(key) : null;
 		if (subgroup == null) {
-			log.error("No subgroup found for key {}", key);
+			log.error("No subgroup found for key {}", keyToString(key));
 			throw new IllegalStateException("Invalid entry");
 		}
 
-		if (subgroup.size() < 30) {
-			log.warn("Group {} has low sample size: {}", key, subgroup.size());
+		if (subgroup.length < 30) {
+			log.warn("Group {} has low sample size: {}", keyToString(key), subgroup.length);
 		}
 
-		return subgroup.get(rnd.nextInt(subgroup.size()));
+		return ids.get(subgroup[rnd.nextInt(subgroup.length)]);
 	}
 
 	/**
@@ -73,7 +92,8 @@ public class PersonMatcher implements Iterable<Map.Entry<String, CSVRecord>> {
 		String employment = p.get("employment");
 		int age = Integer.parseInt(p.get("age"));
 
-		Set<Key> keys = createKey(gender, age, regionType, employment).collect(Collectors.toSet());
+		IntSet keys = new IntOpenHashSet();
+		createKeys(gender, age, regionType, employment).forEach(keys::add);
 
 		List<Person> matched = refPersons.stream()
 			.filter(person -> keys.contains(createKey(person)))
@@ -97,6 +117,8 @@ public class PersonMatcher implements Iterable<Map.Entry<String, CSVRecord>> {
 	 */
 	private void buildSubgroups(CSVParser csv) {
 
+		Int2ObjectMap<IntArrayList> buckets = new Int2ObjectOpenHashMap<>();
+
 		int i = 0;
 
 		for (CSVRecord r : csv) {
@@ -107,24 +129,34 @@ public class PersonMatcher implements Iterable<Map.Entry<String, CSVRecord>> {
 			String employment = r.get("employment");
 			int age = Integer.parseInt(r.get("age"));
 
-			Stream<Key> keys = createKey(gender, age, regionType, employment);
-			keys.forEach(key -> groups.computeIfAbsent(key, (k) -> new ArrayList<>()).add(idx));
+			if (!genders.containsKey(gender))
+				genders.put(gender, genders.size() + 1);
+
+			int row = i;
+			createKeys(gender, age, regionType, employment)
+				.forEach(key -> buckets.computeIfAbsent(key, (k) -> new IntArrayList()).add(row));
+
+			ids.add(idx);
 			persons.put(idx, r);
 			i++;
 		}
 
-		log.info("Read {} persons from csv.", i);
+		for (Int2ObjectMap.Entry<IntArrayList> e : buckets.int2ObjectEntrySet()) {
+			groups.put(e.getIntKey(), e.getValue().toIntArray());
+		}
+
+		log.info("Read {} persons from csv into {} groups.", i, groups.size());
 	}
 
-	private Stream<Key> createKey(String gender, int age, int regionType, String employment) {
+	private IntStream createKeys(String gender, int age, int regionType, String employment) {
 		if (age < 6) {
-			return IntStream.rangeClosed(0, 5).mapToObj(i -> new Key(null, i, regionType, null));
+			return IntStream.rangeClosed(0, 5).map(i -> encodeKey(null, i, regionType, null));
 		}
 		if (age <= 10) {
-			return IntStream.rangeClosed(6, 10).mapToObj(i -> new Key(null, i, regionType, null));
+			return IntStream.rangeClosed(6, 10).map(i -> encodeKey(null, i, regionType, null));
 		}
 		if (age < 18) {
-			return IntStream.rangeClosed(11, 18).mapToObj(i -> new Key(gender, i, regionType, null));
+			return IntStream.rangeClosed(11, 18).map(i -> encodeKey(gender, i, regionType, null));
 		}
 
 		Boolean isEmployed = age > 65 ? null : !employment.equals("unemployed");
@@ -137,10 +169,14 @@ public class PersonMatcher implements Iterable<Map.Entry<String, CSVRecord>> {
 			max = Math.min(99, age + 10);
 		}
 
-		return IntStream.rangeClosed(min, max).mapToObj(i -> new Key(gender, i, regionType, isEmployed));
+		return IntStream.rangeClosed(min, max).map(i -> encodeKey(gender, i, regionType, isEmployed));
 	}
 
-	private Key createKey(Person person) {
+	/**
+	 * Create the encoded key for a person of the population.
+	 * @return negative value if the gender of the person does not occur in the reference data
+	 */
+	private int createKey(Person person) {
 
 		Integer age = PersonUtils.getAge(person);
 		String gender = PersonUtils.getSex(person);
@@ -157,19 +193,50 @@ public class PersonMatcher implements Iterable<Map.Entry<String, CSVRecord>> {
 		if (regionType != 1)
 			regionType = 3;
 
-		return new Key(gender, age, regionType, employed);
+		return encodeKey(gender, age, regionType, employed);
 	}
 
-	@NotNull
-	@Override
-	public Iterator<Map.Entry<String, CSVRecord>> iterator() {
-		return persons.entrySet().iterator();
+	/**
+	 * Packs the key attributes into one int. Layout from lowest bit: region type (8 bits), age (8 bits), employment (2 bits), gender code.
+	 * @return negative value if the gender is unknown
+	 */
+	private int encodeKey(String gender, int age, int regionType, Boolean employed) {
+
+		int g = 0;
+		if (gender != null) {
+			g = genders.getInt(gender);
+			if (g == 0)
+				return -1;
+		}
+
+		int e = employed == null ? 0 : (employed ? 2 : 1);
+
+		return (g << 18) | (e << 16) | ((age & 0xFF) << 8) | (regionType & 0xFF);
 	}
 
 	/**
-	 * Key used to match persons.
+	 * Readable representation of an encoded key, used for logging.
 	 */
-	public record Key(String gender, int age, int regionType, Boolean employed) {
+	private String keyToString(int key) {
+		if (key < 0)
+			return "[unknown gender]";
+
+		int g = key >>> 18;
+		String gender = genders.object2IntEntrySet().stream()
+			.filter(e -> e.getIntValue() == g)
+			.map(Object2IntMap.Entry::getKey)
+			.findFirst().orElse(null);
+
+		int e = (key >>> 16) & 0x3;
+		Boolean employed = e == 0 ? null : e == 2;
+
+		return "[gender=%s, age=%d, regionType=%d, employed=%s]".formatted(gender, (key >>> 8) & 0xFF, key & 0xFF, employed);
+	}
+
+	@NotNull
+	@Override
+	public Iterator<Map.Entry<String, CSVRecord>> iterator() {
+		return persons.entrySet().iterator();
 	}
 
 }
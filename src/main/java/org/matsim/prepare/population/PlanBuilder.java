@@ -6,9 +6,6 @@ import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2LongMap;
 import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.geotools.api.feature.simple.SimpleFeature;
@@ -17,7 +14,6 @@ import org.matsim.api.core.v01.population.Activity;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Plan;
 import org.matsim.api.core.v01.population.Population;
-import org.matsim.application.options.CsvOptions;
 import org.matsim.application.options.ShpOptions;
 import org.matsim.core.router.TripStructureUtils;
 import org.matsim.core.utils.geometry.CoordUtils;
@@ -33,7 +29,6 @@ import java.util.*;
 public class PlanBuilder {
 
 	private static final Logger log = LogManager.getLogger(PlanBuilder.class);
-	private static final CsvOptions csv = new CsvOptions(CSVFormat.Predefined.Default);
 
 	/**
 	 * Maps zone ids to contained facilities.
@@ -47,7 +42,7 @@ public class PlanBuilder {
 	 */
 	private final Object2LongMap<Location> features = new Object2LongOpenHashMap<>();
 
-	private final Map<String, List<CSVRecord>> activities = new HashMap<>();
+	private final ActivityTable activities;
 
 	private final SplittableRandom rnd = new SplittableRandom();
 
@@ -68,44 +63,13 @@ public class PlanBuilder {
 			}
 		}
 
-		try (CSVParser parser = csv.createParser(activityPath)) {
-			readActivities(parser, "p_id");
-		}
-	}
-
-	private void readActivities(CSVParser csv, String idColumn) {
-
-		String currentId = null;
-		List<CSVRecord> current = null;
-
-		int i = 0;
-		for (CSVRecord r : csv) {
-
-			String pId = r.get(idColumn);
-
-			if (!Objects.equals(pId, currentId)) {
-				if (current != null)
-					activities.put(currentId, current);
-
-				currentId = pId;
-				current = new ArrayList<>();
-			}
-
-			current.add(r);
-			i++;
-		}
-
-		if (current != null && !current.isEmpty()) {
-			activities.put(currentId, current);
-		}
-
-		log.info("Read {} activities for {} persons", i, activities.size());
+		activities = ActivityTable.read(activityPath, "p_id");
 	}
 
 	/**
 	 * Return all read activities.
 	 */
-	public Map<String, List<CSVRecord>> getActivities() {
+	public ActivityTable getActivities() {
 		return activities;
 	}
 
@@ -137,14 +101,18 @@ public class PlanBuilder {
 	 */
 	public long findHomeZone(String personId) {
 
-		List<CSVRecord> acts = activities.get(personId);
-
-		Optional<CSVRecord> home = acts.stream().filter(r -> r.get("type").equals("home")).findFirst();
-		if (home.isEmpty())
+		int p = activities.findPerson(personId);
+		if (p < 0)
 			return -1;
 
-		Location loc = new Location(home.get().get("location"), home.get().get("zone"));
-		return features.getOrDefault(loc, -1);
+		for (int i = activities.start(p); i < activities.end(p); i++) {
+			if (activities.getType(i).equals("home")) {
+				Location loc = new Location(activities.getLocation(i), activities.getZone(i));
+				return features.getOrDefault(loc, -1);
+			}
+		}
+
+		return -1;
 	}
 
 	/**
@@ -153,15 +121,27 @@ public class PlanBuilder {
 	 * @return whether the assignment was successful
 	 */
 	public boolean assignLocationsFromZones(String personId, Plan plan, Coord homeCoord) {
+		return assignLocationsFromZones(personId, plan, homeCoord, rnd);
+	}
 
-		List<CSVRecord> acts = activities.get(personId);
+	/**
+	 * Assigns location from reference data to a person, using the given random number generator.
+	 * This method is thread-safe as long as each thread uses its own generator.
+	 *
+	 * @return whether the assignment was successful
+	 */
+	public boolean assignLocationsFromZones(String personId, Plan plan, Coord homeCoord, SplittableRandom rnd) {
+
+		int p = activities.findPerson(personId);
 		List<Activity> existing = TripStructureUtils.getActivities(plan, TripStructureUtils.StageActivityHandling.ExcludeStageActivities);
 
 		// If activities don't match, this entry is skipped
 		// this can happen if an end home activity has been added at the end
-		if (acts.size() != existing.size())
+		if (p < 0 || activities.numActivities(p) != existing.size())
 			return false;
 
+		int offset = activities.start(p);
+
 		ActLocation home = new ActLocation(null, homeCoord);
 
 		List<List<ActLocation>> possibleLocations = new ArrayList<>();
@@ -169,21 +149,21 @@ public class PlanBuilder {
 		// Distances between activities in meter
 		DoubleList dists = new DoubleArrayList();
 
-		for (int i = 0; i < acts.size(); i++) {
+		for (int i = 0; i < existing.size(); i++) {
 
-			CSVRecord ref = acts.get(i);
+			int ref = offset + i;
 			Activity activity = existing.get(i);
 
 			String type = activity.getType();
 
-			dists.add(InitLocationChoice.beelineDist(Double.parseDouble(ref.get("leg_dist"))));
+			dists.add(InitLocationChoice.beelineDist(activities.getLegDist(ref)));
 
 			if (type.equals("home")) {
 				possibleLocations.add(List.of(home));
 				continue;
 			}
 
-			Location loc = new Location(ref.get("location"), ref.get("zone"));
+			Location loc = new Location(activities.getLocation(ref), activities.getZone(ref));
 			long id = features.getOrDefault(loc, -1);
 			if (id == -1) {
 				return false;
@@ -205,7 +185,7 @@ public class PlanBuilder {
 			}
 		}
 
-		List<ActLocation> chosen = sampleLocation(possibleLocations, dists);
+		List<ActLocation> chosen = sampleLocation(possibleLocations, dists, rnd);
 
 		// No valid locations or matching error was too large
 		if (chosen == null)
@@ -230,7 +210,7 @@ public class PlanBuilder {
 	/**
 	 * Chooses from a list of possible locations such that difference to the references distances is minimized.
 	 */
-	private List<ActLocation> sampleLocation(List<List<ActLocation>> locations, DoubleList dists) {
+	private static List<ActLocation> sampleLocation(List<List<ActLocation>> locations, DoubleList dists, SplittableRandom rnd) {
 
 		double err = Double.POSITIVE_INFINITY;
 		List<ActLocation> best = null;
@@ -1,7 +1,5 @@
 package org.matsim.prepare.population;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -9,7 +7,6 @@ import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.*;
 import org.matsim.application.MATSimAppCommand;
-import org.matsim.application.options.CsvOptions;
 import org.matsim.core.population.PersonUtils;
 import org.matsim.core.population.PopulationUtils;
 import org.matsim.core.population.algorithms.ParallelPersonAlgorithmUtils;
@@ -28,12 +25,11 @@ import java.util.*;
 public final class RunActivitySampling implements MATSimAppCommand, PersonAlgorithm {
 
 	private static final Logger log = LogManager.getLogger(RunActivitySampling.class);
-	private final CsvOptions csv = new CsvOptions(CSVFormat.Predefined.Default);
 
 	/**
-	 * Maps person index to list of activities.
+	 * Activities of all survey persons.
 	 */
-	private final Map<String, List<CSVRecord>> activities = new HashMap<>();
+	private ActivityTable activities;
 
 	@CommandLine.Option(names = "--input", description = "Path to input population", required = true)
 	private Path input;
@@ -59,9 +55,9 @@ public final class RunActivitySampling implements MATSimAppCommand, PersonAlgori
 	/**
 	 * Constructor that allows to use the run method directly and not as command.
 	 */
-	RunActivitySampling(PersonMatcher matcher, Map<String, List<CSVRecord>> activities, PopulationFactory factory, long seed) {
+	RunActivitySampling(PersonMatcher matcher, ActivityTable activities, PopulationFactory factory, long seed) {
 		this.matcher = matcher;
-		this.activities.putAll(activities);
+		this.activities = activities;
 		this.factory = factory;
 		this.seed = seed;
 		this.ctxs = ThreadLocal.withInitial(() -> new Context(new SplittableRandom(seed)));
@@ -78,9 +74,7 @@ public final class RunActivitySampling implements MATSimAppCommand, PersonAlgori
 
 		matcher = new PersonMatcher("idx", personsPath);
 
-		try (CSVParser parser = csv.createParser(activityPath)) {
-			readActivities(parser);
-		}
+		activities = ActivityTable.read(activityPath, "p_id");
 
 		ctxs = ThreadLocal.withInitial(() -> new Context(new SplittableRandom(seed)));
 		factory = population.getFactory();
@@ -104,36 +98,6 @@ public final class RunActivitySampling implements MATSimAppCommand, PersonAlgori
 		return 0;
 	}
 
-	private void readActivities(CSVParser csv) {
-
-		String currentId = null;
-		List<CSVRecord> current = null;
-
-		int i = 0;
-		for (CSVRecord r : csv) {
-
-			String pId = r.get("p_id");
-
-			if (!Objects.equals(pId, currentId)) {
-				if (current != null)
-					activities.put(currentId, current);
-
-				currentId = pId;
-				current = new ArrayList<>();
-			}
-
-			current.add(r);
-			i++;
-		}
-
-		if (current != null && !current.isEmpty()) {
-			activities.put(currentId, current);
-		}
-
-		log.info("Read {} activities for {} persons", i, activities.size());
-	}
-
-
 	@Override
 	public void run(Person person) {
 
@@ -150,16 +114,16 @@ public final class RunActivitySampling implements MATSimAppCommand, PersonAlgori
 		switch (mobile.toLowerCase()) {
 
 			case "true" -> {
-				List<CSVRecord> activities = this.activities.get(idx);
+				int p = activities.findPerson(idx);
 
-				if (activities == null)
+				if (p < 0)
 					throw new AssertionError("No activities for mobile person " + idx);
 
-				if (activities.size() == 0)
+				if (activities.numActivities(p) == 0)
 					throw new AssertionError("Activities for mobile agent can not be empty.");
 
 				person.removePlan(person.getSelectedPlan());
-				Plan plan = createPlan(Attributes.getHomeCoord(person), activities, rnd);
+				Plan plan = createPlan(Attributes.getHomeCoord(person), p, rnd);
 
 				person.addPlan(plan);
 				person.setSelectedPlan(plan);
@@ -210,10 +174,17 @@ public final class RunActivitySampling implements MATSimAppCommand, PersonAlgori
 	 * Create plan for a person using given id.
 	 */
 	public Plan createPlan(Coord homeCoord, String personId) {
-		return createPlan(homeCoord, activities.get(personId), ctxs.get().rnd);
+		return createPlan(homeCoord, activities.findPerson(personId), ctxs.get().rnd);
 	}
 
-	private Plan createPlan(Coord homeCoord, List<CSVRecord> activities, SplittableRandom rnd) {
+	/**
+	 * Create plan for a person using given id and random number generator.
+	 */
+	public Plan createPlan(Coord homeCoord, String personId, SplittableRandom rnd) {
+		return createPlan(homeCoord, activities.findPerson(personId), rnd);
+	}
+
+	private Plan createPlan(Coord homeCoord, int person, SplittableRandom rnd) {
 		Plan plan = factory.createPlan();
 
 		Activity a = null;
@@ -225,24 +196,27 @@ public final class RunActivitySampling implements MATSimAppCommand, PersonAlgori
 		double homeDist = 0;
 		boolean arrivedHome = false;
 
-		for (int i = 0; i < activities.size(); i++) {
+		int n = activities.numActivities(person);
+		int offset = activities.start(person);
+
+		for (int i = 0; i < n; i++) {
 
-			CSVRecord act = activities.get(i);
+			int act = offset + i;
 
-			String actType = act.get("type");
+			String actType = activities.getType(act);
 
 			// First and last activities that are other are changed to home
-			if (actType.equals("other") && (i == 0 || i == activities.size() - 1))
+			if (actType.equals("other") && (i == 0 || i == n - 1))
 				actType = "home";
 
-			int duration = Integer.parseInt(act.get("duration"));
+			int duration = activities.getDuration(act);
 
 			if (actType.equals("home")) {
 				a = factory.createActivityFromCoord("home", homeCoord);
 			} else
 				a = factory.createActivityFromLinkId(actType, Id.createLinkId("unassigned"));
 
-			double legDuration = Double.parseDouble(act.get("leg_duration"));
+			double legDuration = activities.getLegDuration(act);
 
 			if (plan.getPlanElements().isEmpty()) {
 				// Add little
@@ -269,7 +243,7 @@ public final class RunActivitySampling implements MATSimAppCommand, PersonAlgori
 				startTime += seconds;
 			}
 
-			double legDist = Double.parseDouble(act.get("leg_dist"));
+			double legDist = activities.getLegDist(act);
 
 			if (i > 0) {
 				a.getAttributes().putAttribute("orig_dist", legDist);
@@ -277,7 +251,7 @@ public final class RunActivitySampling implements MATSimAppCommand, PersonAlgori
 			}
 
 			if (!plan.getPlanElements().isEmpty()) {
-				lastMode = act.get("leg_mode");
+				lastMode = activities.getLegMode(act);
 
 				// other mode is initialized as walk
 				if (lastMode.equals("other"))
@@ -0,0 +1,171 @@
+package org.matsim.legacy.analysis;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class LinkRasterizerTest {
+
+	/**
+	 * 10 x 10 cells of size 10.
+	 */
+	private final RasterGrid grid = new RasterGrid(0, 0, 100, 100, 10);
+
+	private Network network;
+
+	@BeforeEach
+	void setUp() {
+		network = NetworkUtils.createNetwork();
+	}
+
+	private Id<Link> link(String id, double x0, double y0, double x1, double y1) {
+		Node from = NetworkUtils.createAndAddNode(network, Id.createNodeId(id + "_from"), new Coord(x0, y0));
+		Node to = NetworkUtils.createAndAddNode(network, Id.createNodeId(id + "_to"), new Coord(x1, y1));
+		Link link = NetworkUtils.createAndAddLink(network, Id.createLinkId(id), from, to, CoordUtils.calcEuclideanDistance(new Coord(x0, y0), new Coord(x1, y1)), 10, 1000, 1);
+		return link.getId();
+	}
+
+	/**
+	 * Rasterise a value of 1 for the link, so that each cell contains the share of the link length within it.
+	 */
+	private double[] rasterize(Id<Link> linkId) {
+		LinkRasterizer rasterizer = new LinkRasterizer(network, grid, 1, 1, 3600);
+		rasterizer.add(linkId, 0, 0, 1);
+		return rasterizer.getTotalRaster(0);
+	}
+
+	private int cell(int col, int row) {
+		return row * grid.cols() + col;
+	}
+
+	@Test
+	void axisParallel() {
+
+		double[] raster = rasterize(link("horizontal", 5, 15, 35, 15));
+
+		assertThat(raster[cell(0, 1)]).isCloseTo(5 / 30., within(1e-12));
+		assertThat(raster[cell(1, 1)]).isCloseTo(10 / 30., within(1e-12));
+		assertThat(raster[cell(2, 1)]).isCloseTo(10 / 30., within(1e-12));
+		assertThat(raster[cell(3, 1)]).isCloseTo(5 / 30., within(1e-12));
+		assertThat(Arrays.stream(raster).sum()).isCloseTo(1, within(1e-12));
+
+		raster = rasterize(link("vertical", 45, 38, 45, 12));
+
+		assertThat(raster[cell(4, 1)]).isCloseTo(8 / 26., within(1e-12));
+		assertThat(raster[cell(4, 2)]).isCloseTo(10 / 26., within(1e-12));
+		assertThat(raster[cell(4, 3)]).isCloseTo(8 / 26., within(1e-12));
+		assertThat(Arrays.stream(raster).sum()).isCloseTo(1, within(1e-12));
+	}
+
+	@Test
+	void onCellBorder() {
+
+		// Links on a border are assigned to the cell above or to the right of it
+		double[] raster = rasterize(link("borderX", 0, 20, 40, 20));
+
+		for (int col = 0; col < 4; col++) {
+			assertThat(raster[cell(col, 2)]).isCloseTo(0.25, within(1e-12));
+		}
+		assertThat(Arrays.stream(raster).sum()).isCloseTo(1, within(1e-12));
+
+		raster = rasterize(link("borderY", 30, 50, 30, 0));
+
+		for (int row = 0; row < 5; row++) {
+			assertThat(raster[cell(3, row)]).isCloseTo(0.2, within(1e-12));
+		}
+		assertThat(Arrays.stream(raster).sum()).isCloseTo(1, within(1e-12));
+	}
+
+	@Test
+	void diagonal() {
+
+		// Passes exactly through the cell corners
+		double[] raster = rasterize(link("corners", 0, 0, 30, 30));
+
+		for (int i = 0; i < 3; i++) {
+			assertThat(raster[cell(i, i)]).isCloseTo(1 / 3., within(1e-12));
+		}
+		assertThat(Arrays.stream(raster).sum()).isCloseTo(1, within(1e-12));
+
+		raster = rasterize(link("diagonal", 5, 5, 25, 15));
+
+		assertThat(raster[cell(0, 0)]).isCloseTo(0.25, within(1e-12));
+		assertThat(raster[cell(1, 0)]).isCloseTo(0.25, within(1e-12));
+		assertThat(raster[cell(1, 1)]).isCloseTo(0.25, within(1e-12));
+		assertThat(raster[cell(2, 1)]).isCloseTo(0.25, within(1e-12));
+		assertThat(Arrays.stream(raster).sum()).isCloseTo(1, within(1e-12));
+	}
+
+	@Test
+	void partlyOutside() {
+
+		// Half of the link lies left of the grid
+		double[] raster = rasterize(link("left", -50, 55, 50, 55));
+
+		for (int col = 0; col < 5; col++) {
+			assertThat(raster[cell(col, 5)]).isCloseTo(0.1, within(1e-12));
+		}
+		assertThat(Arrays.stream(raster).sum()).isCloseTo(0.5, within(1e-12));
+
+		// Leaves the grid through its upper right corner, only the first half is inside
+		raster = rasterize(link("corner", 80, 90, 120, 110));
+
+		assertThat(raster[cell(8, 9)]).isCloseTo(0.25, within(1e-12));
+		assertThat(raster[cell(9, 9)]).isCloseTo(0.25, within(1e-12));
+		assertThat(Arrays.stream(raster).sum()).isCloseTo(0.5, within(1e-12));
+
+		raster = rasterize(link("outside", -10, -10, -50, 120));
+		assertThat(Arrays.stream(raster).sum()).isZero();
+	}
+
+	@Test
+	void partialCells() {
+
+		// Last column and row are only half within the bounding box
+		RasterGrid partial = new RasterGrid(0, 0, 95, 95, 10);
+		assertThat(partial.cols()).isEqualTo(10);
+
+		LinkRasterizer rasterizer = new LinkRasterizer(network, partial, 1, 1, 3600);
+		rasterizer.add(link("right", 85, 5, 105, 5), 0, 0, 1);
+		rasterizer.add(link("top", 5, 85, 5, 105), 0, 0, 1);
+		rasterizer.add(link("beyond", 97, 97, 99, 99), 0, 0, 1);
+		double[] raster = rasterizer.getTotalRaster(0);
+
+		assertThat(raster[8]).isCloseTo(0.25, within(1e-12));
+		assertThat(raster[9]).isCloseTo(0.25, within(1e-12));
+		assertThat(raster[80]).isCloseTo(0.25, within(1e-12));
+		assertThat(raster[90]).isCloseTo(0.25, within(1e-12));
+		assertThat(Arrays.stream(raster).sum()).isCloseTo(1, within(1e-12));
+	}
+
+	@Test
+	void mergeDifferentBinSize() {
+
+		link("merge", 5, 5, 15, 5);
+		LinkRasterizer a = new LinkRasterizer(network, grid, 1, 2, 3600);
+		LinkRasterizer b = new LinkRasterizer(network, grid, 1, 2, 900);
+
+		assertThatThrownBy(() -> a.merge(b)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void zeroLength() {
+
+		double[] raster = rasterize(link("point", 55, 65, 55, 65));
+
+		assertThat(raster[cell(5, 6)]).isEqualTo(1);
+		assertThat(Arrays.stream(raster).sum()).isEqualTo(1);
+	}
+}
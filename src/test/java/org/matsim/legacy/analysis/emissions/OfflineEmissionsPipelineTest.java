@@ -0,0 +1,116 @@
+package org.matsim.legacy.analysis.emissions;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.matsim.analysis.LinkEventsReplay;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.*;
+import org.matsim.api.core.v01.events.handler.BasicEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.core.events.algorithms.EventWriterXML;
+import org.matsim.vehicles.Vehicle;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OfflineEmissionsPipelineTest {
+
+	private static final int PERSONS = 50;
+
+	@TempDir
+	Path dir;
+
+	/**
+	 * Trips of several persons, with events that are either sharded by vehicle or passed to all shards.
+	 */
+	private String writeEvents() {
+
+		String file = dir.resolve("events.xml.gz").toString();
+		EventWriterXML writer = new EventWriterXML(file);
+
+		Id<Link> from = Id.createLinkId("from");
+		Id<Link> to = Id.createLinkId("to");
+
+		for (int i = 0; i < PERSONS; i++) {
+			Id<Person> person = Id.createPersonId("p" + i);
+			Id<Vehicle> vehicle = Id.createVehicleId("v" + i);
+			double t = i;
+
+			writer.handleEvent(new ActivityEndEvent(t, person, from, null, "home", null));
+			writer.handleEvent(new PersonDepartureEvent(t, person, from, TransportMode.car, TransportMode.car));
+			writer.handleEvent(new PersonEntersVehicleEvent(t, person, vehicle));
+			writer.handleEvent(new VehicleEntersTrafficEvent(t, person, from, vehicle, TransportMode.car, 1));
+			writer.handleEvent(new LinkLeaveEvent(t + 1, vehicle, from));
+			writer.handleEvent(new LinkEnterEvent(t + 1, vehicle, to));
+			writer.handleEvent(new VehicleLeavesTrafficEvent(t + 2, person, to, vehicle, TransportMode.car, 1));
+			writer.handleEvent(new PersonLeavesVehicleEvent(t + 2, person, vehicle));
+			writer.handleEvent(new PersonArrivalEvent(t + 2, person, to, TransportMode.car));
+			writer.handleEvent(new ActivityStartEvent(t + 2, person, to, null, "work", null));
+		}
+
+		writer.closeFile();
+		return file;
+	}
+
+	/**
+	 * Replay the events with shard writers and count the written events by type.
+	 */
+	private Map<String, Integer> replay(String events, int shards) throws InterruptedException {
+
+		Map<String, Integer> counts = new TreeMap<>();
+		BasicEventHandler writer = event -> counts.merge(event.getEventType(), 1, Integer::sum);
+
+		LinkEventsReplay replay = LinkEventsReplay.byVehicle(shards);
+		AtomicInteger index = new AtomicInteger();
+		replay.addHandler(() -> new OfflineEmissionsPipeline.ShardWriter(index.getAndIncrement(), writer));
+
+		replay.readEvents(events);
+		return counts;
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = {2, 4, 7})
+	void eventsWrittenOnce(int shards) throws InterruptedException {
+
+		String events = writeEvents();
+
+		Map<String, Integer> single = replay(events, 1);
+		assertThat(single.values()).containsOnly(PERSONS);
+		assertThat(single).hasSize(10);
+
+		assertThat(replay(events, shards)).isEqualTo(single);
+	}
+
+	@Test
+	void emissionEvents() {
+
+		List<Event> written = new ArrayList<>();
+		OfflineEmissionsPipeline.ShardWriter writer = new OfflineEmissionsPipeline.ShardWriter(3, written::add);
+
+		Id<Link> link = Id.createLinkId("link");
+		Id<Vehicle> vehicle = Id.createVehicleId("v");
+
+		writer.handleEvent(new WarmEmissionEvent(0, link, vehicle, Map.of(Pollutant.CO2_TOTAL, 1.0)));
+		writer.handleEvent(new ColdEmissionEvent(0, link, vehicle, Map.of(Pollutant.CO, 1.0)));
+		writer.handleEvent(new LinkEnterEvent(0, vehicle, link));
+
+		// Events without vehicle are only written by the first shard
+		writer.handleEvent(new ActivityEndEvent(0, Id.createPersonId("p"), link, null, "home", null));
+
+		assertThat(written).hasSize(3);
+	}
+
+}
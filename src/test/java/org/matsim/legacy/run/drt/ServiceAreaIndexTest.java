@@ -0,0 +1,163 @@
+package org.matsim.legacy.run.drt;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.matsim.api.core.v01.Coord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ServiceAreaIndexTest {
+
+	private static final int RANDOM_POINTS = 20_000;
+
+	private final GeometryFactory factory = new GeometryFactory();
+
+	private final SplittableRandom rnd = new SplittableRandom(0);
+
+	private Polygon box(double minX, double minY, double maxX, double maxY) {
+		return (Polygon) factory.toGeometry(new Envelope(minX, maxX, minY, maxY));
+	}
+
+	/**
+	 * Separate areas like the features of a shape file: two squares sharing an edge, a square with a hole
+	 * and a multi polygon consisting of a triangle and a square.
+	 */
+	private List<Geometry> areas() {
+
+		Polygon triangle = factory.createPolygon(new Coordinate[]{
+			new Coordinate(0, 200), new Coordinate(150, 350), new Coordinate(0, 350), new Coordinate(0, 200)
+		});
+
+		return List.of(
+			box(0, 0, 100, 100),
+			box(100, 0, 200, 100),
+			box(300, 0, 500, 200).difference(box(350, 50, 450, 150)),
+			factory.createMultiPolygon(new Polygon[]{triangle, box(200, 200, 250, 250)})
+		);
+	}
+
+	private static List<Geometry> buffer(List<Geometry> geometries, double buffer) {
+		return geometries.stream().map(g -> g.buffer(buffer)).toList();
+	}
+
+	/**
+	 * Uniformly distributed points, also covering the area around the geometries.
+	 */
+	private List<Coordinate> randomPoints(List<Geometry> geometries) {
+
+		Envelope env = new Envelope();
+		geometries.forEach(g -> env.expandToInclude(g.getEnvelopeInternal()));
+		env.expandBy(50);
+
+		List<Coordinate> points = new ArrayList<>();
+		for (int i = 0; i < RANDOM_POINTS; i++) {
+			points.add(new Coordinate(rnd.nextDouble(env.getMinX(), env.getMaxX()), rnd.nextDouble(env.getMinY(), env.getMaxY())));
+		}
+
+		return points;
+	}
+
+	/**
+	 * All vertices and points on the edges of the geometries. Fractions along the edges are exactly representable,
+	 * so that points stay on the axis parallel and diagonal edges.
+	 */
+	private List<Coordinate> boundaryPoints(List<Geometry> geometries) {
+
+		List<Coordinate> points = new ArrayList<>();
+		for (Geometry geometry : geometries) {
+			Geometry boundary = geometry.getBoundary();
+			for (int i = 0; i < boundary.getNumGeometries(); i++) {
+				Coordinate[] cs = boundary.getGeometryN(i).getCoordinates();
+				for (int j = 0; j < cs.length - 1; j++) {
+					points.add(cs[j]);
+					points.add(interpolate(cs[j], cs[j + 1], 0.5));
+					points.add(interpolate(cs[j], cs[j + 1], rnd.nextInt(1, 64) / 64.0));
+				}
+			}
+		}
+
+		return points;
+	}
+
+	private static Coordinate interpolate(Coordinate from, Coordinate to, double f) {
+		return new Coordinate(from.x + f * (to.x - from.x), from.y + f * (to.y - from.y));
+	}
+
+	/**
+	 * Compare the index with {@link Geometry#within(Geometry)} for each of the geometries.
+	 *
+	 * @return number of points within the area
+	 */
+	private int assertSameAsWithin(List<Geometry> geometries, List<Coordinate> points) {
+
+		ServiceAreaIndex index = new ServiceAreaIndex(geometries);
+
+		int inside = 0;
+		for (Coordinate c : points) {
+			Point p = factory.createPoint(c);
+			boolean expected = geometries.stream().anyMatch(p::within);
+
+			assertThat(index.contains(new Coord(c.x, c.y)))
+				.as("Point %s", c)
+				.isEqualTo(expected);
+
+			if (expected)
+				inside++;
+		}
+
+		return inside;
+	}
+
+	@Test
+	void randomPoints() {
+
+		List<Geometry> areas = areas();
+		assertThat(assertSameAsWithin(areas, randomPoints(areas)))
+			.isBetween(1, RANDOM_POINTS - 1);
+
+		List<Geometry> buffered = buffer(areas, 10);
+		assertThat(assertSameAsWithin(buffered, randomPoints(buffered)))
+			.isBetween(1, RANDOM_POINTS - 1);
+	}
+
+	@Test
+	void boundary() {
+
+		// Points on the boundary are not within
+		List<Geometry> areas = areas();
+		assertThat(assertSameAsWithin(areas, boundaryPoints(areas))).isZero();
+
+		// Boundary of one buffered area may lie within another one
+		List<Geometry> buffered = buffer(areas, 10);
+		assertSameAsWithin(buffered, boundaryPoints(buffered));
+	}
+
+	@Test
+	void sharedEdge() {
+
+		// Edge x = 100 and its end points are shared by the two adjacent squares
+		List<Coordinate> points = new ArrayList<>();
+		for (int i = 0; i <= 1000; i++) {
+			points.add(new Coordinate(100, i / 10.0));
+		}
+		for (int i = 0; i < 1000; i++) {
+			points.add(new Coordinate(100, rnd.nextDouble(0, 100)));
+		}
+
+		List<Geometry> areas = areas();
+		assertThat(assertSameAsWithin(areas, points)).isZero();
+
+		// After buffering, the squares overlap and the shared edge is within both of them
+		assertThat(assertSameAsWithin(buffer(areas, 10), points)).isEqualTo(points.size());
+	}
+
+}
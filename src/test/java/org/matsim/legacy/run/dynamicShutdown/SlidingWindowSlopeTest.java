@@ -0,0 +1,153 @@
+package org.matsim.legacy.run.dynamicShutdown;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class SlidingWindowSlopeTest {
+
+	private static final int ITERATIONS = 500;
+
+	private static DynamicShutdownConfigGroup config(DynamicShutdownConfigGroup.slopeWindowOption policy, int windowSize, double retention) {
+		DynamicShutdownConfigGroup cfg = new DynamicShutdownConfigGroup();
+		cfg.setSlopeWindowPolicy(policy);
+		cfg.setMinimumWindowSize(windowSize);
+		cfg.setExpandingWindowPctRetention(retention);
+		return cfg;
+	}
+
+	/**
+	 * Plain least squares fit over the window, computed on the whole history up to the iteration.
+	 */
+	private static double reference(DynamicShutdownConfigGroup cfg, Map<Integer, Double> history, int iteration) {
+
+		int currentIter = history.keySet().stream().filter(it -> it <= iteration).mapToInt(Integer::intValue).max().orElseThrow();
+		int startIteration = currentIter - cfg.getMinimumWindowSize() + 1;
+		int startIterationExpanding = (int) ((1.0 - cfg.getExpandingWindowPctRetention()) * currentIter + 1);
+
+		if (cfg.getSlopeWindowPolicy() == DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING && startIterationExpanding < startIteration) {
+			startIteration = startIterationExpanding;
+		}
+
+		List<Integer> x = new ArrayList<>();
+		List<Double> y = new ArrayList<>();
+		for (Map.Entry<Integer, Double> e : history.entrySet()) {
+			if (e.getKey() >= startIteration && e.getKey() <= iteration) {
+				x.add(e.getKey());
+				y.add(e.getValue());
+			}
+		}
+
+		if (x.size() < 2)
+			return Double.NaN;
+
+		double xBar = x.stream().mapToDouble(Integer::doubleValue).average().orElseThrow();
+		double yBar = y.stream().mapToDouble(Double::doubleValue).average().orElseThrow();
+
+		double xxBar = 0;
+		double xyBar = 0;
+		for (int i = 0; i < x.size(); i++) {
+			xxBar += (x.get(i) - xBar) * (x.get(i) - xBar);
+			xyBar += (x.get(i) - xBar) * (y.get(i) - yBar);
+		}
+
+		return xyBar / xxBar;
+	}
+
+	/**
+	 * Noisy, decaying series similar to score statistics, with every n-th iteration missing if skip > 0.
+	 */
+	private static Map<Integer, Double> history(int skip) {
+		SplittableRandom rnd = new SplittableRandom(0);
+		Map<Integer, Double> history = new HashMap<>();
+		for (int it = 0; it < ITERATIONS; it++) {
+			double value = 120 - 40 * Math.exp(-it / 50.0) + rnd.nextDouble(-2, 2);
+			if (skip == 0 || it % skip != 0)
+				history.put(it, value);
+		}
+		return history;
+	}
+
+	/**
+	 * Feed the history iteration by iteration, starting at the given iteration, and compare all slopes with the reference.
+	 */
+	private static void assertSameSlopes(DynamicShutdownConfigGroup cfg, Map<Integer, Double> history, int firstIteration) {
+
+		SlidingWindowSlope slope = new SlidingWindowSlope(cfg);
+		Map<Integer, Double> seen = new HashMap<>();
+
+		int compared = 0;
+		for (int it = 0; it < ITERATIONS; it++) {
+
+			if (history.containsKey(it))
+				seen.put(it, history.get(it));
+
+			if (it < firstIteration || seen.isEmpty())
+				continue;
+
+			slope.update(seen, it);
+
+			double expected = reference(cfg, seen, it);
+			if (Double.isNaN(expected))
+				continue;
+
+			assertThat(slope.getSlope(it))
+				.as("Slope in iteration %d", it)
+				.isCloseTo(expected, within(1e-9));
+
+			compared++;
+		}
+
+		assertThat(compared).isGreaterThan(ITERATIONS - firstIteration - 20);
+	}
+
+	@Test
+	void fixed() {
+		// Small window leads to many evictions and several recomputations of the sums
+		assertSameSlopes(config(DynamicShutdownConfigGroup.slopeWindowOption.FIXED, 5, 0.5), history(0), 0);
+		assertSameSlopes(config(DynamicShutdownConfigGroup.slopeWindowOption.FIXED, 50, 0.5), history(0), 0);
+	}
+
+	@Test
+	void expanding() {
+		// Large retention grows the ring buffer, small retention evicts more values than the fixed window
+		assertSameSlopes(config(DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING, 5, 0.9), history(0), 0);
+		assertSameSlopes(config(DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING, 5, 0.2), history(0), 0);
+	}
+
+	@Test
+	void missingIterations() {
+		assertSameSlopes(config(DynamicShutdownConfigGroup.slopeWindowOption.FIXED, 10, 0.5), history(3), 0);
+		assertSameSlopes(config(DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING, 10, 0.5), history(4), 0);
+	}
+
+	@Test
+	void backfill() {
+		// First call already has a long history, which needs to be added at once
+		assertSameSlopes(config(DynamicShutdownConfigGroup.slopeWindowOption.FIXED, 20, 0.5), history(0), 150);
+		assertSameSlopes(config(DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING, 20, 0.8), history(5), 150);
+	}
+
+	@Test
+	void missingCurrentIteration() {
+
+		DynamicShutdownConfigGroup cfg = config(DynamicShutdownConfigGroup.slopeWindowOption.FIXED, 5, 0.5);
+		SlidingWindowSlope slope = new SlidingWindowSlope(cfg);
+
+		Map<Integer, Double> history = new HashMap<>(Map.of(0, 1.0, 1, 2.0, 2, 4.0));
+		slope.update(history, 2);
+
+		// No value for iteration 3, slope is computed over the same window as before
+		slope.update(history, 3);
+
+		assertThat(slope.getSlope(3)).isCloseTo(reference(cfg, history, 3), within(1e-12));
+		assertThat(slope.getSlope(4)).isNaN();
+	}
+}
@@ -0,0 +1,178 @@
+package org.matsim.prepare;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleList;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.matsim.prepare.facilities.FacilityAttractionModelOther;
+import org.matsim.prepare.facilities.FacilityAttractionModelWork;
+import org.matsim.prepare.network.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.ToDoubleBiFunction;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TreeEnsembleTest {
+
+	private static final int N = 10_000;
+
+	private final SplittableRandom rnd = new SplittableRandom(0);
+
+	/**
+	 * Create random input columns, values are in a range typical for each feature.
+	 */
+	private double[][] randomColumns(TreeEnsemble ensemble) {
+
+		double[][] columns = new double[ensemble.getFeatures().size()][N];
+		for (double[] column : columns) {
+			double max = switch (rnd.nextInt(3)) {
+				case 0 -> 2;
+				case 1 -> 50;
+				default -> 5000;
+			};
+			for (int i = 0; i < N; i++) {
+				column[i] = rnd.nextInt(4) == 0 ? 0 : rnd.nextDouble(max);
+			}
+		}
+
+		return columns;
+	}
+
+	private static Object2DoubleMap<String> row(TreeEnsemble ensemble, double[][] columns, int i) {
+		Object2DoubleMap<String> ft = new Object2DoubleOpenHashMap<>();
+		for (int f = 0; f < columns.length; f++) {
+			ft.put(ensemble.getFeatures().get(f), columns[f][i]);
+		}
+		return ft;
+	}
+
+	@Test
+	void facilityModels() {
+
+		TreeEnsemble work = TreeEnsemble.load(FacilityAttractionModelWork.class);
+		TreeEnsemble other = TreeEnsemble.load(FacilityAttractionModelOther.class);
+
+		double[][] columns = randomColumns(work);
+
+		double[] resultWork = work.predict(columns, N);
+		double[] resultOther = other.predict(columns, N);
+
+		for (int i = 0; i < N; i++) {
+			Object2DoubleMap<String> ft = row(work, columns, i);
+
+			assertThat(resultWork[i]).isEqualTo(FacilityAttractionModelWork.INSTANCE.predict(ft, null));
+			assertThat(resultOther[i]).isEqualTo(FacilityAttractionModelOther.INSTANCE.predict(ft, null));
+		}
+	}
+
+	/**
+	 * Split values of all nodes for each input index, read from the converted model.
+	 * Splits of <code>&gt;=</code> conditions are stored as the next smaller double, so both the stored value and the next larger one are returned.
+	 */
+	private static List<DoubleList> splits(Class<?> model, int inputs) throws IOException {
+
+		List<DoubleList> splits = new ArrayList<>();
+		for (int i = 0; i < inputs; i++) {
+			splits.add(new DoubleArrayList());
+		}
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+			Objects.requireNonNull(model.getResourceAsStream(model.getSimpleName() + ".trees")), StandardCharsets.UTF_8))) {
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.startsWith("n "))
+					continue;
+
+				String[] t = line.split(" ");
+				double value = Double.parseDouble(t[2]);
+				splits.get(Integer.parseInt(t[1])).add(value);
+				splits.get(Integer.parseInt(t[1])).add(Math.nextUp(value));
+			}
+		}
+
+		return splits;
+	}
+
+	/**
+	 * Generated network model, accessed through the methods common to all of them.
+	 *
+	 * @param predict prediction of the generated class, null if it contains additional logic not part of the trees
+	 */
+	private record NetworkModel(Class<?> type, double[] defaultParams, ToDoubleBiFunction<double[], double[]> score,
+								Function<Object2DoubleMap<String>, double[]> data, ToDoubleFunction<Object2DoubleMap<String>> predict) {
+	}
+
+	static Stream<NetworkModel> networkModels() {
+		return Stream.of(
+			new NetworkModel(BerlinNetworkParams_capacity_priority.class, BerlinNetworkParams_capacity_priority.DEFAULT_PARAMS,
+				BerlinNetworkParams_capacity_priority::score, BerlinNetworkParams_capacity_priority.INSTANCE::getData,
+				BerlinNetworkParams_capacity_priority.INSTANCE::predict),
+			new NetworkModel(BerlinNetworkParams_capacity_right_before_left.class, BerlinNetworkParams_capacity_right_before_left.DEFAULT_PARAMS,
+				BerlinNetworkParams_capacity_right_before_left::score, BerlinNetworkParams_capacity_right_before_left.INSTANCE::getData,
+				BerlinNetworkParams_capacity_right_before_left.INSTANCE::predict),
+			// prediction additionally scales the capacity of major roads
+			new NetworkModel(BerlinNetworkParams_capacity_traffic_light.class, BerlinNetworkParams_capacity_traffic_light.DEFAULT_PARAMS,
+				BerlinNetworkParams_capacity_traffic_light::score, ft -> BerlinNetworkParams_capacity_traffic_light.INSTANCE.getData(ft, null),
+				null),
+			new NetworkModel(BerlinNetworkParams_speedRelative_priority.class, BerlinNetworkParams_speedRelative_priority.DEFAULT_PARAMS,
+				BerlinNetworkParams_speedRelative_priority::score, BerlinNetworkParams_speedRelative_priority.INSTANCE::getData,
+				BerlinNetworkParams_speedRelative_priority.INSTANCE::predict),
+			new NetworkModel(BerlinNetworkParams_speedRelative_right_before_left.class, BerlinNetworkParams_speedRelative_right_before_left.DEFAULT_PARAMS,
+				BerlinNetworkParams_speedRelative_right_before_left::score, BerlinNetworkParams_speedRelative_right_before_left.INSTANCE::getData,
+				BerlinNetworkParams_speedRelative_right_before_left.INSTANCE::predict),
+			new NetworkModel(BerlinNetworkParams_speedRelative_traffic_light.class, BerlinNetworkParams_speedRelative_traffic_light.DEFAULT_PARAMS,
+				BerlinNetworkParams_speedRelative_traffic_light::score, BerlinNetworkParams_speedRelative_traffic_light.INSTANCE::getData,
+				BerlinNetworkParams_speedRelative_traffic_light.INSTANCE::predict)
+		);
+	}
+
+	@ParameterizedTest
+	@MethodSource("networkModels")
+	void networkModel(NetworkModel model) throws IOException {
+
+		TreeEnsemble ensemble = TreeEnsemble.load(model.type());
+
+		assertThat(ensemble.getDefaultParams()).containsExactly(model.defaultParams());
+
+		double[][] columns = randomColumns(ensemble);
+		double[] result = ensemble.predict(columns, N);
+
+		for (int i = 0; i < N; i++) {
+			Object2DoubleMap<String> ft = row(ensemble, columns, i);
+			double[] data = model.data().apply(ft);
+
+			assertThat(result[i]).isEqualTo(model.score().applyAsDouble(data, model.defaultParams()));
+			assertThat(ensemble.score(data, ensemble.getDefaultParams())).isEqualTo(model.score().applyAsDouble(data, model.defaultParams()));
+
+			if (model.predict() != null)
+				assertThat(result[i]).isEqualTo(model.predict().applyAsDouble(ft));
+		}
+
+		// Inputs exactly at the split values, which checks the conversion of the conditions
+		List<DoubleList> splits = splits(model.type(), ensemble.getFeatures().size());
+		for (int i = 0; i < N; i++) {
+
+			double[] data = new double[splits.size()];
+			for (int j = 0; j < data.length; j++) {
+				DoubleList values = splits.get(j);
+				data[j] = values.isEmpty() ? rnd.nextDouble(-2, 2) : values.getDouble(rnd.nextInt(values.size()));
+			}
+
+			assertThat(ensemble.score(data, ensemble.getDefaultParams()))
+				.as("Input %s", Arrays.toString(data))
+				.isEqualTo(model.score().applyAsDouble(data, model.defaultParams()));
+		}
+	}
+}
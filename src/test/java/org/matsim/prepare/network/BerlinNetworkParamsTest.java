@@ -0,0 +1,77 @@
+package org.matsim.prepare.network;
+
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.matsim.application.prepare.Predictor;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BerlinNetworkParamsTest {
+
+	private static final int N = 5_000;
+
+	private final SplittableRandom rnd = new SplittableRandom(0);
+
+	private final BerlinNetworkParams params = new BerlinNetworkParams();
+
+	/**
+	 * Random feature columns, indicator features are either 0 or 1.
+	 */
+	private double[][] randomColumns(List<String> features) {
+
+		double[][] columns = new double[features.size()][N];
+		for (int f = 0; f < columns.length; f++) {
+			boolean indicator = features.get(f).startsWith("is_") || features.get(f).startsWith("priority_");
+			for (int i = 0; i < N; i++) {
+				columns[f][i] = indicator ? rnd.nextInt(2) : rnd.nextInt(4) == 0 ? 0 : rnd.nextDouble(50);
+			}
+		}
+
+		return columns;
+	}
+
+	private static Object2DoubleMap<String> row(List<String> features, double[][] columns, int i) {
+		Object2DoubleMap<String> ft = new Object2DoubleOpenHashMap<>();
+		for (int f = 0; f < columns.length; f++) {
+			ft.put(features.get(f), columns[f][i]);
+		}
+		return ft;
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"traffic_light", "right_before_left", "priority"})
+	void capacity(String junctionType) {
+
+		List<String> features = params.capacityFeatures(junctionType);
+		double[][] columns = randomColumns(features);
+
+		double[] result = new double[N];
+		params.capacity(junctionType, columns, N, result);
+
+		Predictor predictor = params.capacity(junctionType, "");
+		for (int i = 0; i < N; i++) {
+			assertThat(result[i]).isEqualTo(predictor.predict(row(features, columns, i), null));
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"traffic_light", "right_before_left", "priority"})
+	void speedFactor(String junctionType) {
+
+		List<String> features = params.speedFactorFeatures(junctionType);
+		double[][] columns = randomColumns(features);
+
+		double[] result = new double[N];
+		params.speedFactor(junctionType, columns, N, result);
+
+		Predictor predictor = params.speedFactor(junctionType, "");
+		for (int i = 0; i < N; i++) {
+			assertThat(result[i]).isEqualTo(predictor.predict(row(features, columns, i), null));
+		}
+	}
+}